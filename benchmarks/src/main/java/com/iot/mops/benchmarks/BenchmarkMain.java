@@ -0,0 +1,34 @@
+package com.iot.mops.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of {@code benchmarks.jar}: JMH's own {@link Main} with the allocation profiler and JSON results on
+ * by default, so every run leaves {@code jmh-result.json} that can be diffed against a previous run. Passing
+ * {@code -prof}, {@code -rf} or {@code -rff} explicitly replaces the corresponding default.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>();
+        List<String> given = Arrays.asList(args);
+        if (!given.contains("-prof")) {
+            arguments.addAll(List.of("-prof", "gc"));
+        }
+        if (!given.contains("-rf")) {
+            arguments.addAll(List.of("-rf", "json"));
+        }
+        if (!given.contains("-rff")) {
+            arguments.addAll(List.of("-rff", "jmh-result.json"));
+        }
+        arguments.addAll(given);
+        Main.main(arguments.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,137 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.ruleengine.checkpoint.WindowStateCodec;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleCompiler;
+import com.iot.mops.ruleengine.rule.RuleDefinition;
+import com.iot.mops.ruleengine.window.DeviceWindow;
+import com.iot.mops.ruleengine.window.MetricWindow;
+import com.iot.mops.ruleengine.window.WindowStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Window checkpoint cost at device scale: {@code checkpoint} serializes every device's full COUNT window (10
+ * readings), {@code restore} decodes the serialized states into an empty {@link WindowStore}. Both run on a single
+ * thread over one partition; the service spreads the same work over its partition workers. Reading the documents
+ * from MongoDB is not included.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class CheckpointRestoreBenchmark {
+
+    private static final int WINDOW_SIZE = 10;
+
+    @Param({"1000000"})
+    private int devices;
+
+    private DevicePartitioner partitioner;
+    private RuleMetrics metrics;
+    private CompiledRule rule;
+    private Supplier<MetricWindow> newWindow;
+    private String[] deviceIds;
+    private byte[][] states;
+    private WindowStore liveStore;
+    private WindowStore restoredStore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = new RuleMetrics(new SimpleMeterRegistry());
+        partitioner = new DevicePartitioner(1, metrics);
+        rule = new RuleCompiler(WINDOW_SIZE, 60).compile(RuleDefinition.builder()
+                .id("window-a-gt-5-n-10").field("a").operator(RuleDefinition.Operator.GT).threshold(5)
+                .window(RuleDefinition.WindowType.COUNT).windowSize(WINDOW_SIZE).build());
+        newWindow = () -> (MetricWindow) rule.newWindow();
+
+        SplittableRandom random = new SplittableRandom(42);
+        long now = System.currentTimeMillis();
+        liveStore = new WindowStore(partitioner, metrics);
+        liveStore.enableChangeTracking();
+        deviceIds = new String[devices];
+        for (int d = 0; d < devices; d++) {
+            deviceIds[d] = "device-" + d;
+            MetricWindow window = liveStore.window(deviceIds[d], rule.windowKey(), newWindow);
+            for (int r = 0; r < WINDOW_SIZE; r++) {
+                window.add(now - (WINDOW_SIZE - r) * 1000L, random.nextDouble(0, 10));
+            }
+            liveStore.observe(deviceIds[d], now);
+        }
+
+        states = new byte[devices][];
+        Map<String, Integer> index = new HashMap<>(devices * 2);
+        for (int d = 0; d < devices; d++) {
+            index.put(deviceIds[d], d);
+        }
+        liveStore.drainChanges(0, new WindowStore.ChangeSink() {
+            @Override
+            public void changed(String deviceId, long maxEventTs, Map<String, DeviceWindow> windows) {
+                states[index.get(deviceId)] = WindowStateCodec.encode(maxEventTs, windows);
+            }
+
+            @Override
+            public void removed(String deviceId) {
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStores() {
+        // Каждое устройство снова «изменено», как после интервала, за который пришли данные от всех
+        for (String deviceId : deviceIds) {
+            liveStore.window(deviceId, rule.windowKey(), newWindow);
+        }
+        restoredStore = null;
+        restoredStore = new WindowStore(partitioner, metrics);
+    }
+
+    @Benchmark
+    public long checkpoint() {
+        long[] bytes = new long[1];
+        liveStore.drainChanges(0, new WindowStore.ChangeSink() {
+            @Override
+            public void changed(String deviceId, long maxEventTs, Map<String, DeviceWindow> windows) {
+                bytes[0] += WindowStateCodec.encode(maxEventTs, windows).length;
+            }
+
+            @Override
+            public void removed(String deviceId) {
+            }
+        });
+        return bytes[0];
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        for (int d = 0; d < devices; d++) {
+            Map<String, DeviceWindow> windows = new HashMap<>(4);
+            long maxEventTs = WindowStateCodec.decode(states[d], key -> key.equals(rule.windowKey())
+                    ? rule.newWindow() : null, windows);
+            restoredStore.restore(deviceIds[d], maxEventTs, windows);
+        }
+        return restoredStore.size();
+    }
+}
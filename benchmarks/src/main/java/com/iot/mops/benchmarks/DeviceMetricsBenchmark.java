@@ -0,0 +1,105 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.controller.metrics.IotMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IotMetrics#recordDeviceMessage} at device cardinalities up to a million, single-threaded and from four
+ * request threads sharing one instance. {@code distribution} draws devices uniformly or with a heavy head (a tenth
+ * of the devices sends 90% of the messages). {@code perDeviceCounter} is the unbounded alternative, a Micrometer
+ * counter tagged with the device id, for comparison of time, allocation and retained meters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class DeviceMetricsBenchmark {
+
+    private static final int MESSAGES = 1 << 16;
+
+    @Param({"1000", "100000", "1000000"})
+    private int devices;
+
+    @Param({"uniform", "skewed"})
+    private String distribution;
+
+    private IotMetrics metrics;
+    private MeterRegistry counterRegistry;
+    private String[] deviceIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = new IotMetrics(new SimpleMeterRegistry(), 20);
+        counterRegistry = new SimpleMeterRegistry();
+        SplittableRandom random = new SplittableRandom(42);
+        deviceIds = new String[MESSAGES];
+        int head = Math.max(1, devices / 10);
+        for (int i = 0; i < MESSAGES; i++) {
+            int device = "skewed".equals(distribution) && random.nextInt(10) != 0
+                    ? random.nextInt(head)
+                    : random.nextInt(devices);
+            deviceIds[i] = "device-" + device;
+        }
+    }
+
+    /**
+     * Publishing drains the sketches, as the scheduled export does once a minute in the service.
+     */
+    @Setup(Level.Iteration)
+    public void publish() {
+        metrics.publishTopDevices();
+    }
+
+    @Benchmark
+    public void topK(Cursor cursor) {
+        metrics.recordDeviceMessage(deviceIds[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void topKContended(Cursor cursor) {
+        metrics.recordDeviceMessage(deviceIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public void perDeviceCounter(Cursor cursor) {
+        counterRegistry.counter("iot.device.messages", "deviceId", deviceIds[cursor.next()]).increment();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // Потоки начинают с разных мест, чтобы не писать в одни и те же устройства синхронно
+            position = (int) (Thread.currentThread().getId() * 7919) & (MESSAGES - 1);
+        }
+
+        int next() {
+            int i = position;
+            position = (i + 1) & (MESSAGES - 1);
+            return i;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.common.amqp.WireFormat;
+import com.iot.mops.common.dto.IngestRequest;
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.common.dto.QueueEnvelope;
+import com.iot.mops.common.dto.TelemetryPayload;
+import com.iot.mops.common.id.CorrelationIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request work of {@code IngestService.ingest} up to the AMQP body, excluding I/O. {@code separateEnvelope}
+ * is the previous path (SecureRandom UUID, builders for the stored message and a copied envelope);
+ * {@code sharedMessage} is the current one (ULID-style id doubling as the Mongo id, one immutable message used
+ * for both). Run with {@code -prof gc} to compare allocation per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestPathBenchmark {
+
+    private MessageConverter converter;
+    private IngestRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        converter = WireFormat.JSON.converter(false);
+        request = IngestRequest.builder()
+                .deviceId("device-42")
+                .ts(Instant.now())
+                .payload(TelemetryPayload.copyOf(Map.of("a", 7.5, "b", 3, "c", 0.25)))
+                .build();
+    }
+
+    @Benchmark
+    public Message separateEnvelope() {
+        String correlationId = UUID.randomUUID().toString();
+        Instant ingestedAt = Instant.now();
+        IotMessage message = IotMessage.builder()
+                .deviceId(request.getDeviceId())
+                .ts(request.getTs())
+                .payload(request.getPayload())
+                .ingestedAt(ingestedAt)
+                .correlationId(correlationId)
+                .build();
+        QueueEnvelope envelope = QueueEnvelope.builder()
+                .deviceId(message.getDeviceId())
+                .ts(message.getTs())
+                .payload(message.getPayload())
+                .ingestedAt(message.getIngestedAt())
+                .correlationId(message.getCorrelationId())
+                .build();
+        return converter.toMessage(envelope, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message sharedMessage() {
+        IotMessage message = IotMessage.accepted(request, Instant.now(), CorrelationIds.next());
+        return converter.toMessage(message, new MessageProperties());
+    }
+
+    @Benchmark
+    public String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String correlationId() {
+        return CorrelationIds.next();
+    }
+}
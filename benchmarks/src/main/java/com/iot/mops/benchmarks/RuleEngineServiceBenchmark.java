@@ -0,0 +1,147 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.common.dto.Alert;
+import com.iot.mops.common.dto.QueueEnvelope;
+import com.iot.mops.common.dto.TelemetryPayload;
+import com.iot.mops.ruleengine.alert.AlertPipeline;
+import com.iot.mops.ruleengine.checkpoint.WindowCheckpointer;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.RuleDefinition;
+import com.iot.mops.ruleengine.rule.RuleProperties;
+import com.iot.mops.ruleengine.rule.RuleRegistry;
+import com.iot.mops.ruleengine.service.RuleEngineService;
+import com.iot.mops.ruleengine.timer.DeviceTimers;
+import com.iot.mops.ruleengine.tracing.PipelineTracer;
+import com.iot.mops.ruleengine.window.WindowStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RuleEngineService#handle} as the listener calls it: envelopes are handed to the partition workers and each
+ * invocation waits for a burst of {@code BURST} of them, so the score is the amortized cost per message with all
+ * workers busy. Rules are the default {@code a > 5} instant rule and a COUNT window of {@code windowSize}; about
+ * half of the readings trigger, and repeats are folded by the alert cooldown. Writing alerts to MongoDB and
+ * checkpointing windows are stubbed out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class RuleEngineServiceBenchmark {
+
+    private static final int READINGS = 1 << 14;
+    private static final int BURST = 256;
+
+    @Param({"1000", "100000"})
+    private int devices;
+
+    @Param({"10", "100"})
+    private int windowSize;
+
+    private RuleEngineService service;
+    private QueueEnvelope[] envelopes;
+    private final CompletableFuture<?>[] burst = new CompletableFuture<?>[BURST];
+    private Long publishedAt;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RuleMetrics metrics = new RuleMetrics(new SimpleMeterRegistry());
+        DevicePartitioner partitioner = new DevicePartitioner(0, metrics);
+        WindowStore windowStore = new WindowStore(partitioner, metrics);
+
+        RuleProperties properties = new RuleProperties();
+        properties.setDefinitions(List.of(
+                RuleDefinition.builder().id("instant-a-gt-5").field("a")
+                        .operator(RuleDefinition.Operator.GT).threshold(5).build(),
+                RuleDefinition.builder().id("window-a-gt-5-n-" + windowSize).field("a")
+                        .operator(RuleDefinition.Operator.GT).threshold(5)
+                        .window(RuleDefinition.WindowType.COUNT).windowSize(windowSize).build()));
+        RuleRegistry ruleRegistry = new RuleRegistry(properties, null, metrics, partitioner);
+        set(ruleRegistry, "defaultWindowSize", 10);
+        set(ruleRegistry, "defaultMaxAgeSec", 60L);
+        ruleRegistry.reload();
+
+        PipelineTracer tracer = new PipelineTracer(metrics);
+        set(tracer, "slowLogSize", 10);
+        AlertPipeline alertPipeline = new DiscardingAlertPipeline(metrics, tracer);
+        set(alertPipeline, "cooldownMs", 60_000L);
+        DeviceTimers deviceTimers = new DeviceTimers(partitioner, windowStore, ruleRegistry, alertPipeline, metrics,
+                300, 1000);
+        WindowCheckpointer checkpointer = new WindowCheckpointer(null, windowStore, partitioner, ruleRegistry,
+                deviceTimers, metrics);
+        service = new RuleEngineService(alertPipeline, metrics, windowStore, partitioner, ruleRegistry,
+                deviceTimers, checkpointer, tracer);
+        set(service, "ruleTimingSample", 100);
+
+        SplittableRandom random = new SplittableRandom(42);
+        Instant now = Instant.now();
+        publishedAt = now.toEpochMilli();
+        envelopes = new QueueEnvelope[READINGS];
+        for (int i = 0; i < READINGS; i++) {
+            envelopes[i] = QueueEnvelope.builder()
+                    .deviceId("device-" + random.nextInt(devices))
+                    .ts(now)
+                    .payload(TelemetryPayload.copyOf(Map.of("a", random.nextDouble(0, 10),
+                            "b", random.nextDouble(0, 100))))
+                    .ingestedAt(now)
+                    .correlationId("bench-" + i)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void handle() {
+        for (int i = 0; i < BURST; i++) {
+            burst[i] = service.handle(envelopes[cursor], publishedAt);
+            cursor = (cursor + 1) & (READINGS - 1);
+        }
+        CompletableFuture.allOf(burst).join();
+    }
+
+    private static void set(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /**
+     * Keeps the cooldown bookkeeping and drops opened alerts instead of queueing them for MongoDB.
+     */
+    private static final class DiscardingAlertPipeline extends AlertPipeline {
+
+        private DiscardingAlertPipeline(RuleMetrics metrics, PipelineTracer tracer) {
+            super(null, metrics, tracer);
+        }
+
+        @Override
+        public boolean submit(Alert alert) {
+            return submit(alert, opened -> { });
+        }
+    }
+}
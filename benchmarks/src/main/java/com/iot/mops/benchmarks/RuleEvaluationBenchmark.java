@@ -0,0 +1,143 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.common.dto.TelemetryPayload;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleCompiler;
+import com.iot.mops.ruleengine.rule.RuleDefinition;
+import com.iot.mops.ruleengine.rule.RuleSet;
+import com.iot.mops.ruleengine.window.MetricWindow;
+import com.iot.mops.ruleengine.window.WindowStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compiled rule evaluation against the hard-coded {@code a > 5} instant and window checks it replaced.
+ * {@code ruleCount} pads the rule set with extra threshold rules, half on field {@code b} (present in every
+ * reading) and half on field {@code c} (never present, so skipped by the rule index). {@code payloadType} switches
+ * readings between a plain map of boxed numbers and {@link TelemetryPayload}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleEvaluationBenchmark {
+
+    private static final int READINGS = 4096;
+
+    @Param({"1000"})
+    private int devices;
+
+    @Param({"2", "100", "500"})
+    private int ruleCount;
+
+    @Param({"map", "typed"})
+    private String payloadType;
+
+    private String[] deviceIds;
+    private Map<String, Object>[] payloads;
+    private long[] timestamps;
+    private int cursor;
+
+    private WindowStore windowStore;
+    private RuleSet ruleSet;
+    private WindowStore hardCodedStore;
+    private final Supplier<MetricWindow> hardCodedWindow = () -> new MetricWindow(10, v -> v > 5);
+    private long nowMillis;
+    private final List<CompiledRule> candidates = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        deviceIds = new String[READINGS];
+        payloads = new Map[READINGS];
+        timestamps = new long[READINGS];
+        nowMillis = System.currentTimeMillis();
+        for (int i = 0; i < READINGS; i++) {
+            deviceIds[i] = "device-" + random.nextInt(devices);
+            Map<String, Object> payload = Map.of("a", random.nextDouble(0, 10), "b", random.nextDouble(0, 100));
+            payloads[i] = "typed".equals(payloadType) ? TelemetryPayload.copyOf(payload) : payload;
+            timestamps[i] = nowMillis;
+        }
+
+        RuleMetrics metrics = new RuleMetrics(new SimpleMeterRegistry());
+        DevicePartitioner partitioner = new DevicePartitioner(1, metrics);
+        windowStore = new WindowStore(partitioner, metrics);
+        hardCodedStore = new WindowStore(partitioner, metrics);
+
+        RuleCompiler compiler = new RuleCompiler(10, 60);
+        List<CompiledRule> rules = new ArrayList<>();
+        rules.add(compiler.compile(RuleDefinition.builder()
+                .id("instant-a-gt-5").field("a").operator(RuleDefinition.Operator.GT).threshold(5).build()));
+        rules.add(compiler.compile(RuleDefinition.builder()
+                .id("window-a-gt-5-n-10").field("a").operator(RuleDefinition.Operator.GT).threshold(5)
+                .window(RuleDefinition.WindowType.COUNT).windowSize(10).build()));
+        for (int i = rules.size(); i < ruleCount; i++) {
+            String field = i % 2 == 0 ? "b" : "c";
+            rules.add(compiler.compile(RuleDefinition.builder()
+                    .id("instant-" + field + "-gt-" + i).field(field).operator(RuleDefinition.Operator.GT).threshold(i).build()));
+        }
+        ruleSet = new RuleSet(rules);
+    }
+
+    @Benchmark
+    public int compiled() {
+        int i = next();
+        String deviceId = deviceIds[i];
+        int fired = 0;
+        candidates.clear();
+        ruleSet.collectCandidates(deviceId, payloads[i], candidates);
+        for (int r = 0; r < candidates.size(); r++) {
+            if (candidates.get(r).evaluate(deviceId, payloads[i], timestamps[i], nowMillis, windowStore)) {
+                fired++;
+            }
+        }
+        return fired;
+    }
+
+    @Benchmark
+    public int hardCoded() {
+        int i = next();
+        int fired = 0;
+        Object value = payloads[i].get("a");
+        double a = value instanceof Number number ? number.doubleValue() : Double.NaN;
+        if (a > 5) {
+            fired++;
+        }
+        MetricWindow window = hardCodedStore.window(deviceIds[i], "a", hardCodedWindow);
+        window.add(timestamps[i], a);
+        window.evictOlderThan(nowMillis - 60_000);
+        if (window.isFull() && window.allMatch()) {
+            fired++;
+        }
+        return fired;
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = (i + 1) & (READINGS - 1);
+        return i;
+    }
+}
@@ -0,0 +1,101 @@
+package com.iot.mops.benchmarks;
+
+import com.iot.mops.common.amqp.WireFormat;
+import com.iot.mops.common.dto.QueueEnvelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QueueEnvelope} serialization cost and size per wire format, with {@code JSON} being the
+ * {@code Jackson2JsonMessageConverter} the services use by default and {@code typedPayload} reading the payload
+ * as {@code TelemetryPayload} ({@code app.payload.typed}). The encoded body size is printed once per trial (look
+ * for {@code bytes/message} in the output).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "CBOR"})
+    private WireFormat format;
+
+    @Param({"3", "20"})
+    private int payloadFields;
+
+    @Param({"false", "true"})
+    private boolean typedPayload;
+
+    private MessageConverter converter;
+    private QueueEnvelope envelope;
+    private Message encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        converter = format.converter(typedPayload);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        for (int i = 0; i < payloadFields; i++) {
+            payload.put("metric" + i, i % 2 == 0 ? (Object) (i * 1.5) : (Object) i);
+        }
+        Instant now = Instant.now();
+        envelope = QueueEnvelope.builder()
+                .deviceId("device-42")
+                .ts(now)
+                .payload(payload)
+                .ingestedAt(now)
+                .correlationId(UUID.randomUUID().toString())
+                .build();
+        encoded = inbound(converter.toMessage(envelope, new MessageProperties()));
+        System.out.printf("%n%s, %d payload fields: %d bytes/message%n", format, payloadFields, encoded.getBody().length);
+    }
+
+    @Benchmark
+    public Message serialize() {
+        return converter.toMessage(envelope, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return converter.fromMessage(encoded);
+    }
+
+    /**
+     * Producer to consumer: what one envelope costs the controller and the rule engine together.
+     */
+    @Benchmark
+    public Object roundTrip() {
+        return converter.fromMessage(inbound(converter.toMessage(envelope, new MessageProperties())));
+    }
+
+    /**
+     * Mimics the listener container: the consumer sees the producer's content type and the inferred parameter type.
+     */
+    private static Message inbound(Message sent) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(sent.getMessageProperties().getContentType());
+        properties.setHeaders(sent.getMessageProperties().getHeaders());
+        properties.setInferredArgumentType(QueueEnvelope.class);
+        return new Message(sent.getBody(), properties);
+    }
+}
@@ -0,0 +1,87 @@
+package com.iot.mops.common.amqp;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Binary counterpart of {@code Jackson2JsonMessageConverter}: the same Jackson data model encoded as CBOR, with
+ * {@link java.time.Instant}s written as decimal epoch seconds instead of ISO strings, keeping their nanoseconds
+ * as JSON does. Integer timestamps are still read as epoch millis, as written before. The target type comes from
+ * the listener's inferred argument type or, failing that, the {@code __TypeId__} header (trusted packages only).
+ */
+public class CborMessageConverter extends AbstractMessageConverter {
+
+    public static final String CONTENT_TYPE = "application/cbor";
+
+    private static final String TRUSTED_PACKAGE = "com.iot.mops.";
+
+    private final CBORMapper mapper;
+
+    public CborMessageConverter(Module... modules) {
+        this(CBORMapper.builder()
+                .addModule(new JavaTimeModule())
+                .addModules(modules)
+                // Дробные секунды сохраняют наносекунды; целые числа читаются как миллисекунды
+                .enable(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS)
+                .disable(DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build());
+    }
+
+    public CborMessageConverter(CBORMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert " + object.getClass().getName() + " to CBOR", e);
+        }
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        messageProperties.setHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, object.getClass().getName());
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        try {
+            return mapper.readValue(message.getBody(), targetType(properties));
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert CBOR message", e);
+        }
+    }
+
+    private JavaType targetType(MessageProperties properties) {
+        Type inferred = properties.getInferredArgumentType();
+        if (inferred != null && inferred != Object.class) {
+            return mapper.constructType(inferred);
+        }
+        Object typeId = properties.getHeaders().get(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME);
+        if (typeId instanceof String className && className.startsWith(TRUSTED_PACKAGE)) {
+            try {
+                return mapper.constructType(Class.forName(className, false, getClass().getClassLoader()));
+            } catch (ClassNotFoundException e) {
+                throw new MessageConversionException("Unknown type id " + className, e);
+            }
+        }
+        return mapper.constructType(Map.class);
+    }
+}
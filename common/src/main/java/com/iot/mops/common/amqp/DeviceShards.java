@@ -0,0 +1,35 @@
+package com.iot.mops.common.amqp;
+
+/**
+ * Device-to-shard mapping of the sharded events topology ({@code app.rabbit.shards.count > 0}): the controller
+ * publishes a device's messages with routing key {@code shard.<n>}, and each shard has its own queue, consumed by
+ * exactly one rule-engine instance at a time. Producer and consumers must use the same shard count.
+ */
+public final class DeviceShards {
+
+    private static final String ROUTING_KEY_PREFIX = "shard.";
+
+    private DeviceShards() {
+    }
+
+    /**
+     * {@code String.hashCode} is fixed by the language spec, so every JVM maps a device to the same shard. The
+     * hash is mixed further than in the rule engine's partitioner, otherwise all devices of a shard would land on
+     * the same partition worker.
+     */
+    public static int shardOf(String deviceId, int shards) {
+        int h = deviceId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards);
+    }
+
+    public static String routingKey(int shard) {
+        return ROUTING_KEY_PREFIX + shard;
+    }
+
+    public static String queueName(String queue, int shard) {
+        return queue + ".shard-" + shard;
+    }
+}
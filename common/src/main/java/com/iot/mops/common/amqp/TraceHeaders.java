@@ -0,0 +1,14 @@
+package com.iot.mops.common.amqp;
+
+/**
+ * AMQP headers used to time an event across services. Values are epoch milliseconds of the sender's wall clock,
+ * so stages measured against them include the clock skew between hosts.
+ */
+public final class TraceHeaders {
+
+    /** When the controller handed the message to the broker; set again on every publish attempt. */
+    public static final String PUBLISHED_AT = "x-published-at";
+
+    private TraceHeaders() {
+    }
+}
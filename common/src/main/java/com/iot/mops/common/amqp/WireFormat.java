@@ -0,0 +1,35 @@
+package com.iot.mops.common.amqp;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.mops.common.dto.TelemetryPayload;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.ContentTypeDelegatingMessageConverter;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.JacksonUtils;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Encoding of messages between the controller and the rule engine ({@code app.rabbit.wire-format}).
+ */
+public enum WireFormat {
+    JSON,
+    CBOR;
+
+    /**
+     * Converter that writes this format and reads any of them by the message content type, so producers and
+     * consumers can be switched one at a time.
+     *
+     * @param typedPayload whether payloads are read as {@link TelemetryPayload} ({@code app.payload.typed})
+     */
+    public MessageConverter converter(boolean typedPayload) {
+        Module[] modules = typedPayload ? new Module[] {TelemetryPayload.module()} : new Module[0];
+        ObjectMapper jsonMapper = JacksonUtils.enhancedObjectMapper().registerModules(modules);
+        Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter(jsonMapper);
+        CborMessageConverter cbor = new CborMessageConverter(modules);
+        ContentTypeDelegatingMessageConverter converter = new ContentTypeDelegatingMessageConverter(this == CBOR ? cbor : json);
+        converter.addDelegate(MessageProperties.CONTENT_TYPE_JSON, json);
+        converter.addDelegate(CborMessageConverter.CONTENT_TYPE, cbor);
+        return converter;
+    }
+}
@@ -1,10 +1,12 @@
 package com.iot.mops.common.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -24,6 +26,13 @@ public class Alert {
     private int windowSize;
     private String condition;
     private Instant triggeredAt;
+    /** Further triggers of the same rule for the device folded into this alert during its cooldown. */
+    private int repeatCount;
+    private Instant lastTriggeredAt;
     private Map<String, Object> payloadSnapshot;
     private String correlationId;
+    /** Ingest time of the triggering reading, kept only to time the alert's path; not stored. */
+    @Transient
+    @JsonIgnore
+    private Instant ingestedAt;
 }
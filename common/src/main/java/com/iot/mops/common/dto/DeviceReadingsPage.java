@@ -0,0 +1,21 @@
+package com.iot.mops.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a device's readings in (ts, id) order. {@code nextCursor} is {@code null} on the last page.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceReadingsPage {
+    private String deviceId;
+    private List<IotMessage> items;
+    private String nextCursor;
+}
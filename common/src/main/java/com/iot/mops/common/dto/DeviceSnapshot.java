@@ -0,0 +1,36 @@
+package com.iot.mops.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * In-memory view of a device: its last reading and rolling stats of each numeric payload field.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceSnapshot {
+    private String deviceId;
+    /** When the controller last accepted a reading from the device. */
+    private Instant lastSeen;
+    private Instant ts;
+    private Map<String, Object> payload;
+    private String correlationId;
+    private Map<String, RollingStats> stats;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RollingStats {
+        private long count;
+        private double min;
+        private double max;
+        private double avg;
+    }
+}
@@ -0,0 +1,32 @@
+package com.iot.mops.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestBatchResponse {
+    private int accepted;
+    private int stored;
+    private int rejected;
+    private List<IngestItemStatus> items;
+
+    public static IngestBatchResponse of(List<IngestItemStatus> items) {
+        int accepted = 0;
+        int stored = 0;
+        for (IngestItemStatus item : items) {
+            if (item.getStatus() == IngestItemStatus.Status.ACCEPTED) {
+                accepted++;
+            } else if (item.getStatus() == IngestItemStatus.Status.STORED) {
+                stored++;
+            }
+        }
+        return new IngestBatchResponse(accepted, stored, items.size() - accepted - stored, items);
+    }
+}
@@ -0,0 +1,40 @@
+package com.iot.mops.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestItemStatus {
+
+    public enum Status {
+        ACCEPTED,
+        /**
+         * Persisted (or queued for persistence) but not forwarded to the rule engine; resending would store a duplicate.
+         */
+        STORED,
+        REJECTED
+    }
+
+    private int index;
+    private String deviceId;
+    private Status status;
+    private String correlationId;
+    private String error;
+
+    public static IngestItemStatus accepted(int index, String deviceId, String correlationId) {
+        return new IngestItemStatus(index, deviceId, Status.ACCEPTED, correlationId, null);
+    }
+
+    public static IngestItemStatus stored(int index, String deviceId, String correlationId, String error) {
+        return new IngestItemStatus(index, deviceId, Status.STORED, correlationId, error);
+    }
+
+    public static IngestItemStatus rejected(int index, String deviceId, String error) {
+        return new IngestItemStatus(index, deviceId, Status.REJECTED, null, error);
+    }
+}
@@ -1,26 +1,40 @@
 package com.iot.mops.common.dto;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.Value;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.Map;
 
-@Data
+/**
+ * An accepted reading. The same immutable instance is stored in Mongo and published to the rule engine, which
+ * reads it as a {@link QueueEnvelope}.
+ */
+@Value
 @Builder
-@NoArgsConstructor
-@AllArgsConstructor
 @Document(collection = "iot_messages")
 public class IotMessage {
+    // Совпадает с correlationId — не дублируем его в теле AMQP-сообщения
     @Id
-    private String id;
-    private String deviceId;
-    private Instant ts;
-    private Map<String, Object> payload;
-    private Instant ingestedAt;
-    private String correlationId;
+    @JsonIgnore
+    String id;
+    String deviceId;
+    Instant ts;
+    Map<String, Object> payload;
+    Instant ingestedAt;
+    String correlationId;
+
+    /**
+     * Creates the message for an accepted request. The time-ordered correlation id doubles as the Mongo id, so no
+     * ObjectId is generated. As it is assigned up front, a retried insert into a regular collection fails on the
+     * unique {@code _id} instead of storing the reading twice; time-series collections do not enforce a unique
+     * {@code _id}, so there a retry after a partially applied insert can still store a duplicate.
+     */
+    public static IotMessage accepted(IngestRequest request, Instant ingestedAt, String correlationId) {
+        return new IotMessage(correlationId, request.getDeviceId(), request.getTs(), request.getPayload(),
+                ingestedAt, correlationId);
+    }
 }
@@ -0,0 +1,32 @@
+package com.iot.mops.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Aggregated readings of one device over {@code [start, start + bucket)}. Fields without numeric values in the
+ * bucket are absent from {@code fields}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadingBucket {
+    private Instant start;
+    private long count;
+    private Map<String, FieldStats> fields;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FieldStats {
+        private double avg;
+        private double min;
+        private double max;
+    }
+}
@@ -0,0 +1,471 @@
+package com.iot.mops.common.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Telemetry payload that keeps numeric readings in primitive {@code double}/{@code long} slots next to their
+ * interned field names, so a reading costs a few array writes instead of a {@code LinkedHashMap} entry and a boxed
+ * number. Strings, booleans, nulls and nested values fall back to object slots.
+ * <p>
+ * It is a regular {@code Map<String, Object>}: existing code that reads the payload as a map keeps working and sees
+ * numbers boxed on access ({@code Integer} when a whole number fits, as plain Jackson would produce). Hot paths use
+ * {@link #getDouble} instead. Jackson reads and writes it directly, without an intermediate map.
+ * <p>
+ * The message DTOs declare a plain map, so their payload is a {@code LinkedHashMap} unless the mapper has
+ * {@link #module()} registered. Lookups scan the few fields of a typical reading and switch to a hash index once
+ * a payload has more than eight of them.
+ */
+@JsonSerialize(using = TelemetryPayload.Serializer.class)
+@JsonDeserialize(using = TelemetryPayload.Deserializer.class)
+public final class TelemetryPayload extends AbstractMap<String, Object> {
+
+    private static final byte DOUBLE = 0;
+    private static final byte LONG = 1;
+    private static final byte OBJECT = 2;
+
+    // Имена полей у устройств повторяются; ограничиваем таблицу, чтобы мусорные ключи не росли бесконечно
+    private static final int MAX_INTERNED_NAMES = 4096;
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<>();
+
+    private static final int INDEX_THRESHOLD = 8;
+    private static final List<Class<?>> TYPED_OWNERS = List.of(IngestRequest.class, IotMessage.class, QueueEnvelope.class);
+
+    private String[] names;
+    private byte[] types;
+    private long[] slots;
+    private Object[] objects;
+    private int size;
+    // Открытая адресация: номер слота + 1, 0 — пусто; null, пока полей не больше INDEX_THRESHOLD
+    private int[] index;
+
+    public TelemetryPayload() {
+        this(8);
+    }
+
+    public TelemetryPayload(int capacity) {
+        int initial = Math.max(capacity, 1);
+        names = new String[initial];
+        types = new byte[initial];
+        slots = new long[initial];
+    }
+
+    /**
+     * Returns {@code map} itself if it already is a {@code TelemetryPayload}, otherwise a typed copy of it.
+     */
+    public static TelemetryPayload copyOf(Map<String, ?> map) {
+        if (map instanceof TelemetryPayload payload) {
+            return payload;
+        }
+        TelemetryPayload payload = new TelemetryPayload(map.size());
+        map.forEach(payload::put);
+        return payload;
+    }
+
+    /**
+     * Jackson module that reads the {@code payload} of {@link IngestRequest}, {@link IotMessage} and
+     * {@link QueueEnvelope} as a {@code TelemetryPayload}.
+     */
+    public static Module module() {
+        SimpleModule module = new SimpleModule("TelemetryPayload");
+        module.setDeserializerModifier(new BeanDeserializerModifier() {
+            @Override
+            public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription beanDesc,
+                                                         BeanDeserializerBuilder builder) {
+                if (TYPED_OWNERS.contains(beanDesc.getBeanClass())) {
+                    SettableBeanProperty payload = builder.findProperty(PropertyName.construct("payload"));
+                    if (payload != null) {
+                        builder.addOrReplaceProperty(payload.withValueDeserializer(new Deserializer()), true);
+                    }
+                }
+                return builder;
+            }
+        });
+        return module;
+    }
+
+    /**
+     * Canonical instance of a field name, shared by all payloads.
+     */
+    public static String intern(String name) {
+        String existing = NAMES.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (NAMES.size() >= MAX_INTERNED_NAMES) {
+            // Таблицу забили случайные ключи: начинаем заново, чтобы новые настоящие имена тоже интернировались
+            NAMES.clear();
+        }
+        existing = NAMES.putIfAbsent(name, name);
+        return existing != null ? existing : name;
+    }
+
+    /**
+     * Numeric value of {@code name} without boxing, or {@code NaN} if it is absent or not a number.
+     */
+    public double getDouble(String name) {
+        int i = indexOf(name);
+        if (i < 0) {
+            return Double.NaN;
+        }
+        return switch (types[i]) {
+            case DOUBLE -> Double.longBitsToDouble(slots[i]);
+            case LONG -> slots[i];
+            default -> objects[i] instanceof Number number ? number.doubleValue() : Double.NaN;
+        };
+    }
+
+    /**
+     * Calls {@code action} for every numeric field, without boxing primitive slots.
+     */
+    public void forEachNumber(ObjDoubleConsumer<String> action) {
+        for (int i = 0; i < size; i++) {
+            switch (types[i]) {
+                case DOUBLE -> action.accept(names[i], Double.longBitsToDouble(slots[i]));
+                case LONG -> action.accept(names[i], slots[i]);
+                default -> {
+                    if (objects[i] instanceof Number number) {
+                        action.accept(names[i], number.doubleValue());
+                    }
+                }
+            }
+        }
+    }
+
+    public void putDouble(String name, double value) {
+        int i = slotFor(name);
+        types[i] = DOUBLE;
+        slots[i] = Double.doubleToRawLongBits(value);
+        clearObject(i);
+    }
+
+    public void putLong(String name, long value) {
+        int i = slotFor(name);
+        types[i] = LONG;
+        slots[i] = value;
+        clearObject(i);
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        int i = indexOf(name);
+        Object previous = i < 0 ? null : valueAt(i);
+        if (value instanceof Double || value instanceof Float) {
+            putDouble(name, ((Number) value).doubleValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            putLong(name, ((Number) value).longValue());
+        } else {
+            putObject(name, value);
+        }
+        return previous;
+    }
+
+    private void putObject(String name, Object value) {
+        int i = slotFor(name);
+        types[i] = OBJECT;
+        if (objects == null) {
+            objects = new Object[names.length];
+        }
+        objects[i] = value;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = key instanceof String name ? indexOf(name) : -1;
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String name && indexOf(name) >= 0;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int i = key instanceof String name ? indexOf(name) : -1;
+        if (i < 0) {
+            return null;
+        }
+        Object previous = valueAt(i);
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        if (objects != null) {
+            Arrays.fill(objects, 0, size, null);
+        }
+        size = 0;
+        index = null;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new SlotIterator<>() {
+                    @Override
+                    String element(int i) {
+                        return names[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new SlotIterator<>() {
+                    @Override
+                    Entry<String, Object> element(int i) {
+                        return new SimpleImmutableEntry<>(names[i], valueAt(i));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(String name) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int h = hash(name) & mask; ; h = (h + 1) & mask) {
+            int i = index[h] - 1;
+            if (i < 0 || names[i].equals(name)) {
+                return i;
+            }
+        }
+    }
+
+    private int slotFor(String name) {
+        int i = indexOf(name);
+        if (i >= 0) {
+            return i;
+        }
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, capacity);
+            }
+        }
+        names[size] = intern(name);
+        int added = size++;
+        if (index != null && size * 2 <= index.length) {
+            addToIndex(added);
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+        return added;
+    }
+
+    private void rebuildIndex() {
+        if (size <= INDEX_THRESHOLD) {
+            index = null;
+            return;
+        }
+        index = new int[Integer.highestOneBit(size * 2) << 1];
+        for (int i = 0; i < size; i++) {
+            addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int i) {
+        int mask = index.length - 1;
+        int h = hash(names[i]) & mask;
+        while (index[h] != 0) {
+            h = (h + 1) & mask;
+        }
+        index[h] = i + 1;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Object valueAt(int i) {
+        return switch (types[i]) {
+            case DOUBLE -> Double.longBitsToDouble(slots[i]);
+            case LONG -> {
+                long value = slots[i];
+                yield value == (int) value ? (Object) (int) value : (Object) value;
+            }
+            default -> objects[i];
+        };
+    }
+
+    private void clearObject(int i) {
+        if (objects != null) {
+            objects[i] = null;
+        }
+    }
+
+    private void removeAt(int i) {
+        int tail = size - i - 1;
+        System.arraycopy(names, i + 1, names, i, tail);
+        System.arraycopy(types, i + 1, types, i, tail);
+        System.arraycopy(slots, i + 1, slots, i, tail);
+        if (objects != null) {
+            System.arraycopy(objects, i + 1, objects, i, tail);
+            objects[size - 1] = null;
+        }
+        names[--size] = null;
+        if (index != null) {
+            rebuildIndex();
+        }
+    }
+
+    private abstract class SlotIterator<E> implements Iterator<E> {
+        private int next;
+        private int last = -1;
+
+        abstract E element(int i);
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public E next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return element(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    static final class Serializer extends StdSerializer<TelemetryPayload> {
+
+        Serializer() {
+            super(TelemetryPayload.class);
+        }
+
+        @Override
+        public void serialize(TelemetryPayload payload, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(payload, payload.size);
+            for (int i = 0; i < payload.size; i++) {
+                gen.writeFieldName(payload.names[i]);
+                switch (payload.types[i]) {
+                    case DOUBLE -> gen.writeNumber(Double.longBitsToDouble(payload.slots[i]));
+                    case LONG -> gen.writeNumber(payload.slots[i]);
+                    default -> provider.defaultSerializeValue(payload.objects[i], gen);
+                }
+            }
+            gen.writeEndObject();
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, TelemetryPayload payload) {
+            return payload.isEmpty();
+        }
+    }
+
+    static final class Deserializer extends StdDeserializer<TelemetryPayload> {
+
+        Deserializer() {
+            super(TelemetryPayload.class);
+        }
+
+        @Override
+        public TelemetryPayload deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                return (TelemetryPayload) ctxt.handleUnexpectedToken(TelemetryPayload.class, p);
+            }
+            TelemetryPayload payload = new TelemetryPayload();
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String name = p.currentName();
+                switch (p.nextToken()) {
+                    case VALUE_NUMBER_FLOAT -> payload.putDouble(name, p.getDoubleValue());
+                    case VALUE_NUMBER_INT -> {
+                        JsonParser.NumberType type = p.getNumberType();
+                        if (type == JsonParser.NumberType.INT || type == JsonParser.NumberType.LONG) {
+                            payload.putLong(name, p.getLongValue());
+                        } else {
+                            payload.putObject(name, p.getNumberValue());
+                        }
+                    }
+                    case VALUE_NULL -> payload.putObject(name, null);
+                    default -> payload.putObject(name, ctxt.readValue(p, Object.class));
+                }
+            }
+            return payload;
+        }
+    }
+}
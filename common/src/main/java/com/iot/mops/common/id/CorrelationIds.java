@@ -0,0 +1,37 @@
+package com.iot.mops.common.id;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ULID-style correlation ids: 26 Crockford base32 characters, a 48-bit millisecond timestamp followed by 80 random
+ * bits. Ids sort by creation time, and generation never blocks: the random part comes from
+ * {@link ThreadLocalRandom}, not the {@code SecureRandom} behind {@code UUID.randomUUID()}. They are not secrets.
+ */
+public final class CorrelationIds {
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final long RANDOM_40_BITS = (1L << 40) - 1;
+
+    private CorrelationIds() {
+    }
+
+    public static String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    public static String next(long epochMillis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] id = new char[26];
+        encode(epochMillis, id, 0, 10);
+        encode(random.nextLong() & RANDOM_40_BITS, id, 10, 8);
+        encode(random.nextLong() & RANDOM_40_BITS, id, 18, 8);
+        return new String(id);
+    }
+
+    private static void encode(long value, char[] out, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            out[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.iot.mops.common.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-device event counts exported with bounded cardinality. Events are counted in Space-Saving sketches (devices
+ * are striped over several sketches by hash, so each device lives in exactly one of them); {@link #publish()}
+ * exports the {@code k} heaviest devices of the interval as gauges tagged with their {@code deviceId}, folds the
+ * rest into {@code deviceId="other"}, removes the gauges of devices that dropped out of the top and starts a new
+ * interval. At most {@code k + 1} series exist at any time, and {@link #record} never touches the registry.
+ * <p>
+ * Exported values are the sketch's guaranteed lower bounds, so the top devices never add up to more than the
+ * interval total.
+ */
+public final class DeviceTopK {
+
+    public static final String OTHER = "other";
+
+    private static final int STRIPES = 16;
+
+    private final MeterRegistry registry;
+    private final String name;
+    private final String description;
+    private final Tags tags;
+    private final int k;
+    private final StreamSummary[] stripes;
+    private final LongAdder total = new LongAdder();
+    // Доступ только из publish(), под его блокировкой
+    private final Map<String, ExportedGauge> exported = new HashMap<>();
+    private final ExportedGauge other;
+
+    public DeviceTopK(MeterRegistry registry, String name, String description, Tags tags, int k) {
+        this.registry = registry;
+        this.name = name;
+        this.description = description;
+        this.tags = tags;
+        this.k = k;
+        this.stripes = new StreamSummary[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new StreamSummary(Math.max(2 * k, 8));
+        }
+        this.other = register(OTHER);
+    }
+
+    public void record(String deviceId) {
+        total.increment();
+        int h = deviceId.hashCode();
+        StreamSummary stripe = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            stripe.offer(deviceId);
+        }
+    }
+
+    /**
+     * Exports the top devices of the interval since the previous call and starts a new interval.
+     */
+    public synchronized void publish() {
+        List<DeviceCount> counts = new ArrayList<>();
+        for (StreamSummary stripe : stripes) {
+            synchronized (stripe) {
+                stripe.drainTo(counts);
+            }
+        }
+        long sum = total.sumThenReset();
+        counts.sort(Comparator.comparingLong(DeviceCount::count).reversed());
+
+        Set<String> top = new HashSet<>();
+        long topSum = 0;
+        for (int i = 0; i < counts.size() && top.size() < k; i++) {
+            DeviceCount count = counts.get(i);
+            if (count.count() <= 0 || OTHER.equals(count.deviceId())) {
+                continue;
+            }
+            top.add(count.deviceId());
+            exported.computeIfAbsent(count.deviceId(), this::register).value.set(count.count());
+            topSum += count.count();
+        }
+
+        // Устройства, выпавшие из топа, удаляем из реестра, чтобы их серии не копились
+        Iterator<Map.Entry<String, ExportedGauge>> it = exported.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ExportedGauge> entry = it.next();
+            if (!top.contains(entry.getKey())) {
+                registry.remove(entry.getValue().gauge);
+                it.remove();
+            }
+        }
+        other.value.set(Math.max(0, sum - topSum));
+    }
+
+    private ExportedGauge register(String deviceId) {
+        AtomicLong value = new AtomicLong();
+        Gauge gauge = Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .tags(tags)
+                .tag("deviceId", deviceId)
+                .register(registry);
+        return new ExportedGauge(value, gauge);
+    }
+
+    private record ExportedGauge(AtomicLong value, Gauge gauge) {
+    }
+
+    private record DeviceCount(String deviceId, long count) {
+    }
+
+    /**
+     * Space-Saving counters kept in an indexed min-heap: a hit increments its counter, a miss takes over the
+     * smallest one and inherits its count as error. Not thread-safe.
+     */
+    private static final class StreamSummary {
+        private final Map<String, Integer> positions;
+        private final String[] keys;
+        private final long[] counts;
+        private final long[] errors;
+        private int size;
+
+        private StreamSummary(int capacity) {
+            positions = new HashMap<>(capacity * 2);
+            keys = new String[capacity];
+            counts = new long[capacity];
+            errors = new long[capacity];
+        }
+
+        private void offer(String key) {
+            Integer position = positions.get(key);
+            if (position != null) {
+                counts[position]++;
+                siftDown(position);
+            } else if (size < keys.length) {
+                keys[size] = key;
+                counts[size] = 1;
+                errors[size] = 0;
+                positions.put(key, size);
+                siftUp(size++);
+            } else {
+                positions.remove(keys[0]);
+                long min = counts[0];
+                keys[0] = key;
+                counts[0] = min + 1;
+                errors[0] = min;
+                positions.put(key, 0);
+                siftDown(0);
+            }
+        }
+
+        private void drainTo(List<DeviceCount> out) {
+            for (int i = 0; i < size; i++) {
+                out.add(new DeviceCount(keys[i], counts[i] - errors[i]));
+            }
+            positions.clear();
+            Arrays.fill(keys, 0, size, null);
+            size = 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (counts[parent] <= counts[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && counts[left] < counts[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && counts[right] < counts[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            String key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            long count = counts[a];
+            counts[a] = counts[b];
+            counts[b] = count;
+            long error = errors[a];
+            errors[a] = errors[b];
+            errors[b] = error;
+            positions.put(keys[a], a);
+            positions.put(keys[b], b);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.iot.mops.simulator;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.mops.common.dto.IngestRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator. Requests are issued on a fixed schedule derived from the target rate (devices × rate
+ * per device, optionally ramped up linearly), independent of how fast the target answers, and sent through an
+ * asynchronous keep-alive {@link HttpClient}. Latency is measured from the moment a request was due, so a
+ * stalled target shows up in the percentiles instead of silently lowering the offered load (coordinated
+ * omission). At most {@code max-in-flight} requests are outstanding; requests beyond that are counted as dropped
+ * rather than delaying the schedule, and enter the latency percentiles as waiting until the end of the run.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class LoadGenerator {
+
+    private static final String WINDOW_ALERT_DEVICE = "device-window-test";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${simulator.devices:10}")
+    private int devices;
+
+    @Value("${simulator.rate:1}")
+    private double ratePerDevice;
+
+    @Value("${simulator.ramp-up-seconds:0}")
+    private long rampUpSeconds;
+
+    @Value("${simulator.duration-seconds:60}")
+    private long durationSeconds;
+
+    @Value("${simulator.target-url:http://iot-controller:8080/api/ingest}")
+    private String targetUrl;
+
+    @Value("${simulator.batch-size:1}")
+    private int batchSize;
+
+    @Value("${simulator.http-version:HTTP_1_1}")
+    private HttpClient.Version httpVersion;
+
+    @Value("${simulator.max-in-flight:1000}")
+    private int maxInFlight;
+
+    @Value("${simulator.request-timeout-ms:2000}")
+    private long requestTimeoutMs;
+
+    @Value("${simulator.report-interval-sec:10}")
+    private long reportIntervalSec;
+
+    @Value("${simulator.window-alert-burst:true}")
+    private boolean windowAlertBurst;
+
+    @Value("${simulator.summary-file:}")
+    private String summaryFile;
+
+    private final AtomicInteger windowAlertCounter = new AtomicInteger(0);
+
+    /**
+     * Runs the scenario for {@code duration-seconds}, waits for outstanding requests and returns the summary.
+     */
+    public LoadSummary run() throws InterruptedException {
+        String[] deviceIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = "device-" + i;
+        }
+        HttpClient client = HttpClient.newBuilder()
+                .version(httpVersion)
+                .connectTimeout(Duration.ofMillis(requestTimeoutMs))
+                .build();
+        URI uri = URI.create(batchSize > 1 ? targetUrl + "/batch" : targetUrl);
+        double targetRate = devices * ratePerDevice;
+        double requestRate = targetRate / batchSize;
+        log.info("Starting open-loop load devices={} rate={} msg/s ({} req/s) rampUp={}s duration={}s batch={} target={}",
+                devices, targetRate, requestRate, rampUpSeconds, durationSeconds, batchSize, uri);
+
+        long start = System.nanoTime();
+        LoadReport report = new LoadReport(start);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simulator-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long reportNanos = TimeUnit.SECONDS.toNanos(reportIntervalSec);
+        background.scheduleAtFixedRate(() -> report.logInterval(reportNanos), reportNanos, reportNanos,
+                TimeUnit.NANOSECONDS);
+        if (windowAlertBurst) {
+            background.scheduleAtFixedRate(() -> sendWindowAlertBurst(client), 5, 5, TimeUnit.SECONDS);
+            log.info("Window alert device '{}' will send bursts of high values to trigger window alerts",
+                    WINDOW_ALERT_DEVICE);
+        }
+
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long rampNanos = TimeUnit.SECONDS.toNanos(rampUpSeconds);
+        long due = start;
+        int cursor = 0;
+        while (due < end) {
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            // Отставшее расписание догоняем без пауз: нагрузка не зависит от скорости ответов
+            byte[] body = encode(deviceIds, cursor);
+            cursor = (cursor + batchSize) % devices;
+            send(client, uri, body, due, inFlight, report);
+            due += intervalNanos(due - start, rampNanos, requestRate);
+        }
+
+        if (!inFlight.tryAcquire(maxInFlight, requestTimeoutMs + 1000, TimeUnit.MILLISECONDS)) {
+            log.warn("{} requests still outstanding at the end of the run", maxInFlight - inFlight.availablePermits());
+        }
+        background.shutdownNow();
+        LoadSummary summary = report.summary(LoadSummary.builder()
+                .devices(devices)
+                .targetRate(targetRate)
+                .batchSize(batchSize)
+                .httpVersion(httpVersion.name()), System.nanoTime() - start);
+        publish(summary);
+        return summary;
+    }
+
+    /**
+     * Gap to the next request: the inverse of the current rate, which grows linearly during the ramp-up.
+     */
+    private static long intervalNanos(long elapsedNanos, long rampNanos, double requestRate) {
+        double rate = requestRate;
+        if (elapsedNanos < rampNanos) {
+            // Минимум 1 запрос/с, иначе первый интервал рампы бесконечен
+            rate = Math.max(1, requestRate * elapsedNanos / rampNanos);
+        }
+        return Math.max(1, (long) (1e9 / rate));
+    }
+
+    private void send(HttpClient client, URI uri, byte[] body, long due, Semaphore inFlight, LoadReport report) {
+        if (!inFlight.tryAcquire()) {
+            report.recordDropped(batchSize, due);
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        long sent = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            inFlight.release();
+            long done = System.nanoTime();
+            if (error != null) {
+                report.recordFailure(error, batchSize, due, sent, done);
+            } else {
+                report.recordResponse(response.statusCode(), batchSize, due, sent, done);
+            }
+        });
+    }
+
+    private byte[] encode(String[] deviceIds, int cursor) {
+        try {
+            if (batchSize == 1) {
+                return objectMapper.writeValueAsBytes(reading(deviceIds[cursor], randomValue()));
+            }
+            List<IngestRequest> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(reading(deviceIds[(cursor + i) % deviceIds.length], randomValue()));
+            }
+            return objectMapper.writeValueAsBytes(batch);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode readings", e);
+        }
+    }
+
+    private static IngestRequest reading(String deviceId, double a) {
+        return IngestRequest.builder()
+                .deviceId(deviceId)
+                .ts(Instant.now())
+                .payload(Map.of("a", a))
+                .build();
+    }
+
+    private static double randomValue() {
+        return ThreadLocalRandom.current().nextDouble(0, 10);
+    }
+
+    private void sendWindowAlertBurst(HttpClient client) {
+        int count = windowAlertCounter.incrementAndGet();
+
+        if (count > 15) {
+            windowAlertCounter.set(1);
+            count = 1;
+            log.info("Starting new window alert burst sequence for device '{}'", WINDOW_ALERT_DEVICE);
+        }
+
+        try {
+            double a = 6.0 + ThreadLocalRandom.current().nextDouble(0, 3);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(targetUrl))
+                    .timeout(Duration.ofMillis(requestTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            objectMapper.writeValueAsBytes(reading(WINDOW_ALERT_DEVICE, a))))
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+
+            if (count == 10) {
+                log.info("Window alert should trigger now for device '{}' (10 consecutive messages with a > 5)", WINDOW_ALERT_DEVICE);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to send window alert burst", e);
+        }
+    }
+
+    private void publish(LoadSummary summary) {
+        try {
+            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(summary);
+            System.out.println(json);
+            if (!summaryFile.isBlank()) {
+                Files.writeString(Path.of(summaryFile), json);
+                log.info("Load summary written to {}", summaryFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write load summary", e);
+        }
+    }
+}
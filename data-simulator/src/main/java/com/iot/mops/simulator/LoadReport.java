@@ -0,0 +1,125 @@
+package com.iot.mops.simulator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcome counters and latency histograms of a load run. Responses are recorded from HTTP client threads through
+ * HdrHistogram {@link Recorder}s; interval reports and the final summary are taken under this object's lock.
+ * A dropped request never completes, so the summary counts it with the latency from its due time to the end of
+ * the run; interval reports cover answered requests only.
+ */
+@Slf4j
+final class LoadReport {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder droppedDue = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram totalLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalServiceTime = new Histogram(SIGNIFICANT_DIGITS);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final long startNanos;
+    private Histogram intervalLatency;
+    private long reportedMessages;
+
+    LoadReport(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    void recordResponse(int status, int count, long dueNanos, long sentNanos, long doneNanos) {
+        record(count, dueNanos, sentNanos, doneNanos);
+        if (status >= 200 && status < 300) {
+            accepted.add(count);
+        } else {
+            errors.computeIfAbsent("http_" + status, key -> new LongAdder()).increment();
+        }
+    }
+
+    void recordFailure(Throwable error, int count, long dueNanos, long sentNanos, long doneNanos) {
+        record(count, dueNanos, sentNanos, doneNanos);
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        errors.computeIfAbsent(cause.getClass().getSimpleName(), key -> new LongAdder()).increment();
+    }
+
+    void recordDropped(int count, long dueNanos) {
+        dropped.add(count);
+        droppedDue.recordValue(Math.max(0, dueNanos - startNanos) / 1000);
+    }
+
+    /**
+     * Logs throughput and latency since the previous call.
+     */
+    synchronized void logInterval(long intervalNanos) {
+        drainIntervals();
+        long total = messages.sum();
+        double rate = (total - reportedMessages) * 1e9 / intervalNanos;
+        reportedMessages = total;
+        log.info("Sent {} msg/s, latency p50={} ms p99={} ms max={} ms, dropped={}, errors={}",
+                Math.round(rate),
+                intervalLatency.getValueAtPercentile(50) / 1000.0,
+                intervalLatency.getValueAtPercentile(99) / 1000.0,
+                intervalLatency.getMaxValue() / 1000.0,
+                dropped.sum(), errorCounts());
+    }
+
+    synchronized LoadSummary summary(LoadSummary.LoadSummaryBuilder scenario, long elapsedNanos) {
+        drainIntervals();
+        recordDroppedLatency(elapsedNanos / 1000);
+        return scenario
+                .durationMs(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .achievedRate(Math.round(messages.sum() * 1e10 / elapsedNanos) / 10.0)
+                .requests(requests.sum())
+                .messages(messages.sum())
+                .accepted(accepted.sum())
+                .dropped(dropped.sum())
+                .errors(errorCounts())
+                .latencyMs(LoadSummary.Percentiles.of(totalLatency))
+                .serviceTimeMs(LoadSummary.Percentiles.of(totalServiceTime))
+                .build();
+    }
+
+    private void record(int count, long dueNanos, long sentNanos, long doneNanos) {
+        requests.increment();
+        messages.add(count);
+        latency.recordValue(Math.max(0, doneNanos - dueNanos) / 1000);
+        serviceTime.recordValue(Math.max(0, doneNanos - sentNanos) / 1000);
+    }
+
+    /**
+     * Adds the dropped requests to the total latency as if they completed at {@code endMicros}.
+     */
+    private void recordDroppedLatency(long endMicros) {
+        for (HistogramIterationValue due : droppedDue.getIntervalHistogram().recordedValues()) {
+            // Запрос не ушёл вовсе — без этого отброшенные запросы выпадали бы из перцентилей
+            totalLatency.recordValueWithCount(Math.max(0, endMicros - due.getValueIteratedTo()),
+                    due.getCountAtValueIteratedTo());
+        }
+    }
+
+    private void drainIntervals() {
+        intervalLatency = latency.getIntervalHistogram(intervalLatency);
+        totalLatency.add(intervalLatency);
+        totalServiceTime.add(serviceTime.getIntervalHistogram());
+    }
+
+    private Map<String, Long> errorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((key, count) -> counts.put(key, count.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,64 @@
+package com.iot.mops.simulator;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+
+/**
+ * Result of a load run, printed as JSON when the run ends. Rates count messages, not HTTP requests.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoadSummary {
+    private int devices;
+    private double targetRate;
+    private double achievedRate;
+    private long durationMs;
+    private int batchSize;
+    private String httpVersion;
+    private long requests;
+    private long messages;
+    private long accepted;
+    /** Messages not sent because {@code max-in-flight} requests were already outstanding. */
+    private long dropped;
+    /** Failed requests by HTTP status ({@code http_503}) or exception type. */
+    private Map<String, Long> errors;
+    /** From the moment the request was due by the schedule, so stalls of the target are not hidden. */
+    private Percentiles latencyMs;
+    /** From the moment the request was actually sent. */
+    private Percentiles serviceTimeMs;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Percentiles {
+        private double p50;
+        private double p90;
+        private double p99;
+        private double p999;
+        private double max;
+        private double mean;
+
+        /**
+         * @param histogram values in microseconds
+         */
+        public static Percentiles of(Histogram histogram) {
+            return new Percentiles(millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()),
+                    Math.round(histogram.getMean()) / 1000.0);
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.iot.mops.controller.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.mops.common.dto.DeviceReadingsPage;
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.common.dto.ReadingBucket;
+import com.iot.mops.controller.service.DeviceHistoryService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+@RestController
+@RequestMapping("/api/devices/{deviceId}/readings")
+@RequiredArgsConstructor
+public class DeviceHistoryController {
+
+    private final DeviceHistoryService historyService;
+    private final ObjectMapper objectMapper;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeviceReadingsPage readings(@PathVariable String deviceId,
+                                      @RequestParam Instant from,
+                                      @RequestParam Instant to,
+                                      @RequestParam(required = false) String after,
+                                      @RequestParam(defaultValue = "500") int limit) {
+        return historyService.page(deviceId, from, to, after, limit);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamReadings(@PathVariable String deviceId,
+                                                                @RequestParam Instant from,
+                                                                @RequestParam Instant to,
+                                                                @RequestParam(required = false) String after) {
+        // Открываем курсор до ответа, чтобы ошибки параметров вернулись как 400, а не оборвали поток
+        Stream<IotMessage> readings = historyService.stream(deviceId, from, to, after);
+        StreamingResponseBody body = out -> {
+            try (readings) {
+                Iterator<IotMessage> it = readings.iterator();
+                while (it.hasNext()) {
+                    out.write(objectMapper.writeValueAsBytes(it.next()));
+                    out.write('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping(value = "/downsampled", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<ReadingBucket> downsampled(@PathVariable String deviceId,
+                                           @RequestParam Instant from,
+                                           @RequestParam Instant to,
+                                           @RequestParam Duration bucket,
+                                           @RequestParam List<String> fields) {
+        return historyService.downsample(deviceId, from, to, bucket, fields);
+    }
+}
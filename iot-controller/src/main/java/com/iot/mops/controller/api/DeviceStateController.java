@@ -0,0 +1,28 @@
+package com.iot.mops.controller.api;
+
+import com.iot.mops.common.dto.DeviceSnapshot;
+import com.iot.mops.controller.store.DeviceStateCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+
+/**
+ * Latest state of a device, served from {@link DeviceStateCache} only; devices not in the cache are 404.
+ */
+@RestController
+@RequestMapping("/api/devices/{deviceId}")
+@RequiredArgsConstructor
+public class DeviceStateController {
+
+    private final DeviceStateCache deviceStateCache;
+
+    @GetMapping("/latest")
+    public ResponseEntity<DeviceSnapshot> latest(@PathVariable String deviceId) {
+        return ResponseEntity.of(Optional.ofNullable(deviceStateCache.snapshot(deviceId)));
+    }
+}
@@ -1,25 +1,171 @@
 package com.iot.mops.controller.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.mops.common.dto.IngestBatchResponse;
+import com.iot.mops.common.dto.IngestItemStatus;
 import com.iot.mops.common.dto.IngestRequest;
+import com.iot.mops.controller.limit.ConcurrencyLimiter;
+import com.iot.mops.controller.limit.IngestPriority;
+import com.iot.mops.controller.service.BatchTooLargeException;
 import com.iot.mops.controller.service.IngestService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ingest endpoints. Every request runs within {@link ConcurrencyLimiter}; a single reading takes the priority of its
+ * device, a JSON batch that of its least critical device, so that a critical reading cannot lift a whole batch
+ * into the critical share, and an NDJSON stream, whose devices are unknown up front, the normal one.
+ */
 @RestController
 @RequestMapping("/api")
 @RequiredArgsConstructor
 public class IngestController {
 
+    private static final String CORRELATION_ID_HEADER = "X-Correlation-Id";
+    private static final String INGEST_STATUS_HEADER = "X-Ingest-Status";
+
     private final IngestService ingestService;
+    private final ObjectMapper objectMapper;
+    private final ConcurrencyLimiter limiter;
+
+    @Value("${app.ingest.batch.chunk-size:500}")
+    private int chunkSize;
 
+    @Value("${app.ingest.batch.max-size:10000}")
+    private int maxSize;
+
+    /**
+     * Answers 202 with the reading's correlation id; a reading that was stored but not published also carries
+     * {@code X-Ingest-Status: STORED} and must not be resent.
+     */
     @PostMapping("/ingest")
     public ResponseEntity<Void> ingest(@Valid @RequestBody IngestRequest request) {
-        ingestService.ingest(request);
-        return ResponseEntity.accepted().build();
+        IngestItemStatus status = limiter.call(limiter.priorityOf(request.getDeviceId()), true,
+                () -> ingestService.ingest(request), s -> s.getStatus() == IngestItemStatus.Status.STORED);
+        ResponseEntity.BodyBuilder response = ResponseEntity.accepted()
+                .header(CORRELATION_ID_HEADER, status.getCorrelationId());
+        if (status.getStatus() == IngestItemStatus.Status.STORED) {
+            response.header(INGEST_STATUS_HEADER, status.getStatus().name());
+        }
+        return response.build();
+    }
+
+    @PostMapping(value = "/ingest/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<IngestBatchResponse> ingestBatch(@RequestBody List<IngestRequest> requests) {
+        if (requests.size() > maxSize) {
+            throw new BatchTooLargeException(maxSize);
+        }
+        List<IngestItemStatus> statuses = limiter.call(batchPriority(requests), false, () -> {
+            List<IngestItemStatus> chunks = new ArrayList<>(requests.size());
+            for (int from = 0; from < requests.size(); from += chunkSize) {
+                List<IngestRequest> chunk = requests.subList(from, Math.min(from + chunkSize, requests.size()));
+                chunks.addAll(ingestService.ingestBatch(chunk, from));
+            }
+            return chunks;
+        });
+        return ResponseEntity.accepted().body(IngestBatchResponse.of(statuses));
+    }
+
+    @PostMapping(value = "/ingest/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<IngestBatchResponse> ingestBatchNdjson(InputStream body) throws IOException {
+        List<Line> lines = readLines(body);
+        List<IngestItemStatus> statuses = limiter.call(IngestPriority.NORMAL, false, () -> ingestNdjson(lines));
+        return ResponseEntity.accepted().body(IngestBatchResponse.of(statuses));
+    }
+
+    /**
+     * Reads the whole stream before anything is stored, so that an oversized batch is rejected as a whole instead of
+     * after its first chunks were accepted. This happens outside the limit, so a slow upload does not hold a permit.
+     * Blank lines are skipped but keep their place in the numbering.
+     */
+    private List<Line> readLines(InputStream body) throws IOException {
+        List<Line> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            for (int number = 0; (line = reader.readLine()) != null; number++) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (lines.size() == maxSize) {
+                    throw new BatchTooLargeException(maxSize);
+                }
+                lines.add(new Line(number, line));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Ingests the lines in chunks; each status is indexed by the zero-based number of its line in the stream.
+     */
+    private List<IngestItemStatus> ingestNdjson(List<Line> lines) {
+        List<IngestItemStatus> statuses = new ArrayList<>(lines.size());
+        List<IngestRequest> chunk = new ArrayList<>(chunkSize);
+        List<Line> chunkLines = new ArrayList<>(chunkSize);
+
+        for (Line line : lines) {
+            IngestRequest request;
+            try {
+                request = objectMapper.readValue(line.text(), IngestRequest.class);
+            } catch (JsonProcessingException e) {
+                // Сбрасываем накопленный чанк, чтобы статусы шли в порядке строк
+                flush(chunk, chunkLines, statuses);
+                statuses.add(IngestItemStatus.rejected(line.number(), null,
+                        "malformed line: " + e.getOriginalMessage()));
+                continue;
+            }
+            chunk.add(request);
+            chunkLines.add(line);
+            if (chunk.size() >= chunkSize) {
+                flush(chunk, chunkLines, statuses);
+            }
+        }
+        flush(chunk, chunkLines, statuses);
+        return statuses;
+    }
+
+    private void flush(List<IngestRequest> chunk, List<Line> chunkLines, List<IngestItemStatus> statuses) {
+        for (IngestItemStatus status : ingestService.ingestBatch(chunk, 0)) {
+            status.setIndex(chunkLines.get(status.getIndex()).number());
+            statuses.add(status);
+        }
+        chunk.clear();
+        chunkLines.clear();
+    }
+
+    private record Line(int number, String text) {
+    }
+
+    private IngestPriority batchPriority(List<IngestRequest> requests) {
+        if (requests.isEmpty()) {
+            return IngestPriority.NORMAL;
+        }
+        IngestPriority priority = IngestPriority.CRITICAL;
+        for (IngestRequest request : requests) {
+            IngestPriority item = limiter.priorityOf(request == null ? null : request.getDeviceId());
+            if (item.compareTo(priority) > 0) {
+                priority = item;
+                if (priority == IngestPriority.LOW) {
+                    break;
+                }
+            }
+        }
+        return priority;
     }
 }
@@ -0,0 +1,17 @@
+package com.iot.mops.controller.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.iot.mops.common.dto.IotMessage;
+import org.springframework.boot.jackson.JsonMixin;
+
+/**
+ * Shows the Mongo id of {@link IotMessage} in HTTP responses, where it orders readings with equal {@code ts} and,
+ * for readings stored before ids were correlation ids, differs from {@code correlationId}. Messages published to
+ * RabbitMQ still leave it out.
+ */
+@JsonMixin(IotMessage.class)
+abstract class IotMessageJsonMixin {
+
+    @JsonIgnore(false)
+    String id;
+}
@@ -0,0 +1,33 @@
+package com.iot.mops.controller.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size of the MongoDB connection pool. With virtual threads the pool is what bounds concurrent requests, so a
+ * request waits at most {@code app.mongo.max-wait-ms} for a connection and then fails; on platform threads the
+ * Tomcat pool already bounds them and the driver's default wait applies.
+ */
+@Configuration
+public class MongoPoolConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoPoolCustomizer(
+            Environment environment,
+            @Value("${app.mongo.max-pool-size:100}") int maxPoolSize,
+            @Value("${app.mongo.max-wait-ms:2000}") long maxWaitMs) {
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        return settings -> settings.applyToConnectionPoolSettings(pool -> {
+            pool.maxSize(maxPoolSize);
+            if (virtual) {
+                pool.maxWaitTime(maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
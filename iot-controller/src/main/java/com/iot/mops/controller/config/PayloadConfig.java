@@ -0,0 +1,21 @@
+package com.iot.mops.controller.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.iot.mops.common.dto.TelemetryPayload;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * With {@code app.payload.typed} the HTTP mapper reads request payloads as {@link TelemetryPayload}, as the message
+ * converters do; Spring Boot registers every {@link Module} bean with the application's {@code ObjectMapper}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.payload.typed", havingValue = "true")
+public class PayloadConfig {
+
+    @Bean
+    public Module telemetryPayloadModule() {
+        return TelemetryPayload.module();
+    }
+}
@@ -1,8 +1,10 @@
 package com.iot.mops.controller.config;
 
+import com.iot.mops.common.amqp.WireFormat;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -10,15 +12,18 @@ import org.springframework.context.annotation.Configuration;
 public class RabbitConverterConfig {
 
     @Bean
-    public Jackson2JsonMessageConverter jackson2JsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${app.rabbit.wire-format:json}") WireFormat wireFormat,
+                                             @Value("${app.payload.typed:false}") boolean typedPayload) {
+        return wireFormat.converter(typedPayload);
     }
 
     @Bean
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory,
-                                         Jackson2JsonMessageConverter messageConverter) {
+                                         MessageConverter messageConverter,
+                                         @Value("${spring.rabbitmq.publisher-returns:false}") boolean publisherReturns) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
         rabbitTemplate.setMessageConverter(messageConverter);
+        rabbitTemplate.setMandatory(publisherReturns);
         return rabbitTemplate;
     }
 }
@@ -0,0 +1,63 @@
+package com.iot.mops.controller.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+
+/**
+ * Execution mode of request handling. With {@code spring.threads.virtual.enabled} on Java 21+ Tomcat runs every
+ * request on its own virtual thread, so the blocking Mongo and AMQP calls in {@code IngestService} no longer
+ * tie up a pooled thread and concurrency is bounded by {@code server.tomcat.max-connections} instead of
+ * {@code server.tomcat.threads.max}. The real limits then are the Mongo connection pool and the Rabbit channel
+ * cache, so in this mode both are bounded with a short wait instead of queueing requests indefinitely: the pool
+ * in {@link MongoPoolConfig}, the channel cache here. On platform threads the Tomcat pool bounds both already.
+ */
+@Configuration
+@Slf4j
+public class ThreadingConfig {
+
+    /**
+     * Caps the channels of the Rabbit connection factory at {@code app.rabbit.channel-limit.size}; a publish
+     * waits up to {@code checkout-timeout-ms} for a free channel and then fails.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public static BeanPostProcessor rabbitChannelLimit(
+            @Value("${app.rabbit.channel-limit.size:200}") int channelCacheSize,
+            @Value("${app.rabbit.channel-limit.checkout-timeout-ms:1000}") long checkoutTimeoutMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof CachingConnectionFactory connectionFactory) {
+                    connectionFactory.setChannelCacheSize(channelCacheSize);
+                    connectionFactory.setChannelCheckoutTimeout(checkoutTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void reportMode(ApplicationReadyEvent event) {
+        Environment environment = event.getApplicationContext().getEnvironment();
+        boolean requested = environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        if (Threading.VIRTUAL.isActive(environment)) {
+            log.info("Request handling on virtual threads, max connections {}",
+                    environment.getProperty("server.tomcat.max-connections"));
+        } else if (requested) {
+            log.warn("Virtual threads requested but need Java 21+ (running {}), using platform threads",
+                    Runtime.version().feature());
+        } else {
+            log.info("Request handling on platform threads, max {}",
+                    environment.getProperty("server.tomcat.threads.max"));
+        }
+    }
+}
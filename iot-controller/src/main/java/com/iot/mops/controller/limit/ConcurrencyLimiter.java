@@ -0,0 +1,260 @@
+package com.iot.mops.controller.limit;
+
+import com.iot.mops.controller.metrics.IotMetrics;
+import com.iot.mops.controller.store.WriteBehindOverflowException;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive limit on concurrently processed ingest requests, so that a slow Mongo or RabbitMQ rejects the excess
+ * right away instead of parking Tomcat threads until clients time out. The limit follows a gradient rule on the
+ * latency of single-message ingests (the work timed by {@code iot.processing.time}): every {@code window-size}
+ * samples the window's average is compared with a long-term average, the limit shrinks in proportion when latency
+ * grows beyond {@code rtt-tolerance} and grows by about {@code sqrt(limit)} while it does not. A window in which
+ * a request failed on an overloaded dependency (Mongo pool timeout, full publish window or write-behind buffer)
+ * cuts the limit by {@code backoff-ratio} instead. When failures come without any successful sample, the window
+ * is closed early, but at most once per {@code retry-after-sec}, so a burst of failures cuts the limit once.
+ * <p>
+ * Priorities share the limit: {@code LOW} requests may use {@code low-share} of it, {@code NORMAL} ones
+ * {@code normal-share}, and {@code CRITICAL} ones all of it, so critical devices are shed last. A request is
+ * rejected with 503 when the limit is used up and with 429 when only the reserve for higher priorities is left.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConcurrencyLimiter {
+
+    private final IotMetrics metrics;
+
+    @Value("${app.ingest.limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ingest.limit.initial-limit:50}")
+    private int initialLimit;
+
+    @Value("${app.ingest.limit.min-limit:10}")
+    private int minLimit;
+
+    @Value("${app.ingest.limit.max-limit:500}")
+    private int maxLimit;
+
+    @Value("${app.ingest.limit.window-size:50}")
+    private int windowSize;
+
+    @Value("${app.ingest.limit.long-window:600}")
+    private int longWindow;
+
+    @Value("${app.ingest.limit.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    @Value("${app.ingest.limit.smoothing:0.2}")
+    private double smoothing;
+
+    @Value("${app.ingest.limit.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${app.ingest.limit.retry-after-sec:1}")
+    private long retryAfterSec;
+
+    @Value("${app.ingest.limit.normal-share:0.9}")
+    private double normalShare;
+
+    @Value("${app.ingest.limit.low-share:0.5}")
+    private double lowShare;
+
+    @Value("${app.ingest.limit.critical-devices:}")
+    private List<String> criticalDevices;
+
+    @Value("${app.ingest.limit.low-devices:}")
+    private List<String> lowDevices;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // Состояние окна и градиента; доступ только под this
+    private double estimatedLimit;
+    private double longRttNanos;
+    private long windowRttNanos;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    private long lastBackoffNanos;
+
+    @PostConstruct
+    void init() {
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        limit = (int) estimatedLimit;
+        lastBackoffNanos = System.nanoTime() - TimeUnit.SECONDS.toNanos(retryAfterSec);
+        metrics.bindConcurrencyLimit(() -> limit, inFlight::get);
+        if (enabled) {
+            log.info("Adaptive ingest limit initial={} range=[{}, {}] critical={} low={}",
+                    limit, minLimit, maxLimit, criticalDevices, lowDevices);
+        }
+    }
+
+    public IngestPriority priorityOf(String deviceId) {
+        if (deviceId != null) {
+            if (matches(criticalDevices, deviceId)) {
+                return IngestPriority.CRITICAL;
+            }
+            if (matches(lowDevices, deviceId)) {
+                return IngestPriority.LOW;
+            }
+        }
+        return IngestPriority.NORMAL;
+    }
+
+    /**
+     * Runs {@code action} within the limit, or throws {@link IngestOverloadedException} without running it.
+     *
+     * @param sampled whether the action's latency feeds the limit; only single-message ingests are, as batch
+     *                latency depends on the batch size
+     */
+    public <T> T call(IngestPriority priority, boolean sampled, Supplier<T> action) {
+        return call(priority, sampled, action, result -> false);
+    }
+
+    /**
+     * Like {@link #call(IngestPriority, boolean, Supplier)}, but a result matching {@code overloaded} cuts the limit
+     * as a failure on an overloaded dependency does, for actions that report such failures instead of throwing.
+     */
+    public <T> T call(IngestPriority priority, boolean sampled, Supplier<T> action, Predicate<? super T> overloaded) {
+        if (!enabled) {
+            return action.get();
+        }
+        int started = acquire(priority);
+        long start = System.nanoTime();
+        boolean dropped = false;
+        try {
+            T result = action.get();
+            dropped = overloaded.test(result);
+            return result;
+        } catch (RuntimeException e) {
+            dropped = isOverload(e);
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+            if (dropped) {
+                onDropped();
+            } else if (sampled) {
+                onSample(System.nanoTime() - start, started);
+            }
+        }
+    }
+
+    public void run(IngestPriority priority, boolean sampled, Runnable action) {
+        call(priority, sampled, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private int acquire(IngestPriority priority) {
+        int current = limit;
+        int allowed = switch (priority) {
+            case CRITICAL -> current;
+            case NORMAL -> Math.max(1, (int) (current * normalShare));
+            case LOW -> Math.max(1, (int) (current * lowShare));
+        };
+        while (true) {
+            int busy = inFlight.get();
+            if (busy >= allowed) {
+                boolean full = busy >= current;
+                metrics.incrementIngestRejected(priority.name().toLowerCase(), full ? "limit" : "shed");
+                throw new IngestOverloadedException(full ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.TOO_MANY_REQUESTS,
+                        priority, current, retryAfterSec);
+            }
+            if (inFlight.compareAndSet(busy, busy + 1)) {
+                return busy + 1;
+            }
+        }
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+        windowRttNanos += rttNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart);
+        if (++windowSamples >= windowSize) {
+            closeWindow();
+        }
+    }
+
+    private synchronized void onDropped() {
+        windowDropped = true;
+        // Сервис не отвечает совсем — окно может не набраться, сокращаем сразу, но не чаще раза за Retry-After:
+        // иначе каждый из отказов, накопившихся в очереди, срезал бы лимит ещё раз
+        if (windowSamples == 0 && System.nanoTime() - lastBackoffNanos >= TimeUnit.SECONDS.toNanos(retryAfterSec)) {
+            closeWindow();
+        }
+    }
+
+    private void closeWindow() {
+        double next;
+        if (windowDropped) {
+            next = estimatedLimit * backoffRatio;
+            lastBackoffNanos = System.nanoTime();
+        } else {
+            double shortRtt = (double) windowRttNanos / windowSamples;
+            if (longRttNanos == 0) {
+                longRttNanos = shortRtt;
+            } else {
+                longRttNanos += (shortRtt - longRttNanos) / Math.max(1, longWindow / windowSize);
+            }
+            // После перегрузки долгая оценка завышена: подтягиваем её к текущей, иначе лимит вырастет слишком рано
+            if (longRttNanos > 2 * shortRtt) {
+                longRttNanos *= 0.95;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRtt));
+            double candidate = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            next = estimatedLimit * (1 - smoothing) + candidate * smoothing;
+            // Окно, не занявшее и половины лимита, не говорит, выдержит ли сервис больше: только уменьшаем
+            if (windowMaxInFlight * 2 < estimatedLimit) {
+                next = Math.min(next, estimatedLimit);
+            }
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        int previous = limit;
+        limit = (int) estimatedLimit;
+        if (limit != previous) {
+            log.debug("Ingest limit {} -> {} (dropped={}, longRtt={} us)", previous, limit, windowDropped,
+                    Math.round(longRttNanos / 1000));
+        }
+        windowRttNanos = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    private static boolean isOverload(RuntimeException e) {
+        return e instanceof WriteBehindOverflowException
+                || e instanceof AmqpException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof QueryTimeoutException;
+    }
+
+    /**
+     * A pattern matches the device id exactly, or its prefix when it ends with {@code *}.
+     */
+    private static boolean matches(List<String> patterns, String deviceId) {
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            boolean prefix = pattern.endsWith("*");
+            if (prefix ? deviceId.startsWith(pattern.substring(0, pattern.length() - 1)) : deviceId.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
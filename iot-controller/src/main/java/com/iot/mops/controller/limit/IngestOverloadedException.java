@@ -0,0 +1,26 @@
+package com.iot.mops.controller.limit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Request rejected by {@link ConcurrencyLimiter}: 503 when the whole concurrency limit is in use, 429 when the
+ * remaining capacity is reserved for higher priorities. Both carry {@code Retry-After}.
+ */
+public class IngestOverloadedException extends ResponseStatusException {
+
+    private final long retryAfterSec;
+
+    public IngestOverloadedException(HttpStatus status, IngestPriority priority, int limit, long retryAfterSec) {
+        super(status, "Ingest overloaded, " + priority + " request rejected at concurrency limit " + limit);
+        this.retryAfterSec = retryAfterSec;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSec));
+        return headers;
+    }
+}
@@ -0,0 +1,10 @@
+package com.iot.mops.controller.limit;
+
+/**
+ * Shedding order of ingest requests under overload: {@code LOW} is rejected first, {@code CRITICAL} last.
+ */
+public enum IngestPriority {
+    CRITICAL,
+    NORMAL,
+    LOW
+}
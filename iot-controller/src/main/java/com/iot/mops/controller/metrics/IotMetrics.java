@@ -1,12 +1,21 @@
 package com.iot.mops.controller.metrics;
 
+import com.iot.mops.common.metrics.DeviceTopK;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Component
 public class IotMetrics {
@@ -15,10 +24,24 @@ public class IotMetrics {
     private final Counter messagesProcessed;
     private final Counter validationErrors;
     private final Timer processingTime;
+    private final Timer batchProcessingTime;
+    private final DistributionSummary batchSize;
+    private final Timer writeBehindFlushTime;
+    private final DistributionSummary writeBehindBatchSize;
+    private final Counter writeBehindRejected;
+    private final Counter writeBehindRetries;
+    private final Timer publishConfirmTime;
+    private final Counter publishRetries;
+    private final Counter publishFailed;
+    private final Counter publishReturned;
+    private final Counter publishWindowFull;
+    private final Counter devicesEvictedSize;
+    private final Counter devicesEvictedIdle;
+    private final DeviceTopK deviceMessages;
+    private final Map<String, Counter> ingestRejected = new ConcurrentHashMap<>();
     private final MeterRegistry registry;
-    private final ConcurrentHashMap<String, AtomicInteger> deviceMessageCounts = new ConcurrentHashMap<>();
 
-    public IotMetrics(MeterRegistry registry) {
+    public IotMetrics(MeterRegistry registry, @Value("${app.metrics.top-devices:20}") int topDevices) {
         this.registry = registry;
         
         // Счётчик полученных сообщений
@@ -41,14 +64,83 @@ public class IotMetrics {
                 .description("Time taken to process IoT messages")
                 .register(registry);
 
-        // Gauge для количества активных устройств
-        registry.gaugeMapSize("iot.devices.active", null, deviceMessageCounts);
+        // Таймер обработки пакетов
+        this.batchProcessingTime = Timer.builder("iot.batch.processing.time")
+                .description("Time taken to process a batch of IoT messages")
+                .register(registry);
+
+        // Размер пакетов batch-ingest
+        this.batchSize = DistributionSummary.builder("iot.batch.size")
+                .description("Number of messages per batch ingest request")
+                .register(registry);
+
+        // Write-behind: время сброса пакета в MongoDB
+        this.writeBehindFlushTime = Timer.builder("iot.writebehind.flush.time")
+                .description("Time taken to flush a write-behind batch to MongoDB")
+                .register(registry);
+
+        // Write-behind: размер сбрасываемых пакетов
+        this.writeBehindBatchSize = DistributionSummary.builder("iot.writebehind.batch.size")
+                .description("Number of messages per write-behind flush")
+                .register(registry);
+
+        // Write-behind: отказы из-за переполнения буфера
+        this.writeBehindRejected = Counter.builder("iot.writebehind.rejected")
+                .description("Messages rejected because the write-behind buffer was full")
+                .register(registry);
+        this.writeBehindRetries = Counter.builder("iot.writebehind.retries")
+                .description("Write-behind flushes retried after a MongoDB failure")
+                .register(registry);
+
+        // Publisher confirms: время от публикации до подтверждения брокером
+        this.publishConfirmTime = Timer.builder("iot.publish.confirm.time")
+                .description("Time from publish to broker confirm")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+
+        // Publisher confirms: повторные публикации после nack
+        this.publishRetries = Counter.builder("iot.publish.retries")
+                .description("Messages re-published after a nack")
+                .register(registry);
+
+        // Publisher confirms: сообщения, не подтверждённые после всех попыток
+        this.publishFailed = Counter.builder("iot.publish.failed")
+                .description("Messages not confirmed after all attempts")
+                .register(registry);
+
+        // Publisher confirms: сообщения, возвращённые как немаршрутизируемые
+        this.publishReturned = Counter.builder("iot.publish.returned")
+                .description("Messages returned by the broker as unroutable")
+                .register(registry);
+
+        // Publisher confirms: отказы из-за заполненного окна
+        this.publishWindowFull = Counter.builder("iot.publish.window.full")
+                .description("Publishes rejected because the in-flight window was full")
+                .register(registry);
+
+        // Кэш состояния устройств: вытеснения по размеру и по простою
+        this.devicesEvictedSize = Counter.builder("iot.devices.evicted")
+                .description("Devices dropped from the state cache")
+                .tag("reason", "size")
+                .register(registry);
+        this.devicesEvictedIdle = Counter.builder("iot.devices.evicted")
+                .description("Devices dropped from the state cache")
+                .tag("reason", "idle")
+                .register(registry);
+
+        // Сообщения по устройствам: только топ-K за интервал, остальные сведены в deviceId="other"
+        this.deviceMessages = new DeviceTopK(registry, "iot.device.messages",
+                "Messages per device over the last publish interval, top devices only", Tags.empty(), topDevices);
     }
 
     public void incrementMessagesReceived() {
         messagesReceived.increment();
     }
 
+    public void incrementMessagesReceived(int count) {
+        messagesReceived.increment(count);
+    }
+
     public void incrementMessagesProcessed() {
         messagesProcessed.increment();
     }
@@ -65,15 +157,95 @@ public class IotMetrics {
         sample.stop(processingTime);
     }
 
+    public void stopBatchTimer(Timer.Sample sample) {
+        sample.stop(batchProcessingTime);
+    }
+
+    public void recordBatchSize(int size) {
+        batchSize.record(size);
+    }
+
+    public void bindWriteBehindQueue(Collection<?> queue) {
+        registry.gaugeCollectionSize("iot.writebehind.queue.depth", Tags.empty(), queue);
+    }
+
+    public void recordWriteBehindFlush(Timer.Sample sample, int size) {
+        sample.stop(writeBehindFlushTime);
+        writeBehindBatchSize.record(size);
+    }
+
+    public void incrementWriteBehindRejected() {
+        writeBehindRejected.increment();
+    }
+
+    public void incrementWriteBehindRetries() {
+        writeBehindRetries.increment();
+    }
+
+    public void bindPublishWindow(Supplier<Number> inFlight) {
+        Gauge.builder("iot.publish.inflight", inFlight)
+                .description("Published messages awaiting broker confirm")
+                .register(registry);
+    }
+
+    public void recordPublishConfirm(long nanos) {
+        publishConfirmTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void incrementPublishRetries() {
+        publishRetries.increment();
+    }
+
+    public void incrementPublishFailed() {
+        publishFailed.increment();
+    }
+
+    public void incrementPublishReturned() {
+        publishReturned.increment();
+    }
+
+    public void incrementPublishWindowFull() {
+        publishWindowFull.increment();
+    }
+
+    public void bindConcurrencyLimit(Supplier<Number> limit, Supplier<Number> inFlight) {
+        Gauge.builder("iot.ingest.limit", limit)
+                .description("Current adaptive limit on concurrently processed ingest requests")
+                .register(registry);
+        Gauge.builder("iot.ingest.inflight", inFlight)
+                .description("Ingest requests being processed within the limit")
+                .register(registry);
+    }
+
+    /**
+     * @param reason {@code limit} (503, limit used up) or {@code shed} (429, capacity reserved for higher priorities)
+     */
+    public void incrementIngestRejected(String priority, String reason) {
+        ingestRejected.computeIfAbsent(priority + '|' + reason, key -> Counter.builder("iot.ingest.rejected")
+                        .tag("priority", priority)
+                        .tag("reason", reason)
+                        .description("Ingest requests rejected by the concurrency limiter")
+                        .register(registry))
+                .increment();
+    }
+
+    public void bindDeviceCache(Supplier<Number> size) {
+        // Gauge для количества активных устройств
+        Gauge.builder("iot.devices.active", size)
+                .description("Devices held in the state cache, i.e. seen within its idle timeout")
+                .register(registry);
+    }
+
+    public void incrementDevicesEvicted(String reason, int count) {
+        ("idle".equals(reason) ? devicesEvictedIdle : devicesEvictedSize).increment(count);
+    }
+
     public void recordDeviceMessage(String deviceId) {
-        deviceMessageCounts.computeIfAbsent(deviceId, k -> {
-            AtomicInteger count = new AtomicInteger(0);
-            // Создаём gauge для каждого устройства
-            registry.gauge("iot.device.messages", 
-                    io.micrometer.core.instrument.Tags.of("deviceId", deviceId), 
-                    count);
-            return count;
-        }).incrementAndGet();
+        deviceMessages.record(deviceId);
     }
-}
 
+    @Scheduled(fixedDelayString = "${app.metrics.top-devices-interval-ms:60000}")
+    public void publishTopDevices() {
+        deviceMessages.publish();
+    }
+}
@@ -0,0 +1,12 @@
+package com.iot.mops.controller.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+public class BatchTooLargeException extends RuntimeException {
+
+    public BatchTooLargeException(int maxSize) {
+        super("Batch exceeds " + maxSize + " items");
+    }
+}
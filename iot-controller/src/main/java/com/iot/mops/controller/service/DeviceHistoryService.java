@@ -0,0 +1,162 @@
+package com.iot.mops.controller.service;
+
+import com.iot.mops.common.dto.DeviceReadingsPage;
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.common.dto.ReadingBucket;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Read path over {@code iot_messages}. Pages are keyset-paginated on (ts, id), which the {@code deviceId_ts_id}
+ * index serves without skipping; the cursor is the (ts, id) of the last returned reading. Downsampling runs
+ * in the aggregation pipeline so only one document per bucket leaves MongoDB.
+ */
+@Service
+@RequiredArgsConstructor
+public class DeviceHistoryService {
+
+    private static final Pattern FIELD_NAME = Pattern.compile("[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*");
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${app.history.max-page-size:5000}")
+    private int maxPageSize;
+
+    @Value("${app.history.max-buckets:10000}")
+    private int maxBuckets;
+
+    public DeviceReadingsPage page(String deviceId, Instant from, Instant to, String cursor, int limit) {
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidQueryException("limit must be between 1 and " + maxPageSize);
+        }
+        // Берём на одну запись больше, чтобы без count понять, есть ли следующая страница
+        Query query = rangeQuery(deviceId, from, to, cursor).limit(limit + 1);
+        List<IotMessage> items = mongoTemplate.find(query, IotMessage.class);
+        String nextCursor = null;
+        if (items.size() > limit) {
+            items = new ArrayList<>(items.subList(0, limit));
+            nextCursor = encodeCursor(items.get(limit - 1));
+        }
+        return new DeviceReadingsPage(deviceId, items, nextCursor);
+    }
+
+    /**
+     * All readings in the range from the cursor on, read lazily through a MongoDB cursor. The caller must close
+     * the stream.
+     */
+    public Stream<IotMessage> stream(String deviceId, Instant from, Instant to, String cursor) {
+        return mongoTemplate.stream(rangeQuery(deviceId, from, to, cursor), IotMessage.class);
+    }
+
+    /**
+     * Avg/min/max of each of {@code fields} per {@code bucket}-long interval aligned to the epoch, oldest first.
+     * Non-numeric values are ignored.
+     */
+    public List<ReadingBucket> downsample(String deviceId, Instant from, Instant to, Duration bucket, List<String> fields) {
+        checkRange(from, to);
+        long bucketMs = bucket.toMillis();
+        if (bucketMs <= 0) {
+            throw new InvalidQueryException("bucket must be at least 1ms");
+        }
+        if ((to.toEpochMilli() - from.toEpochMilli()) / bucketMs > maxBuckets) {
+            throw new InvalidQueryException("range spans more than " + maxBuckets + " buckets");
+        }
+        if (fields.isEmpty()) {
+            throw new InvalidQueryException("at least one field is required");
+        }
+        for (String field : fields) {
+            if (!FIELD_NAME.matcher(field).matches()) {
+                throw new InvalidQueryException("invalid field name: " + field);
+            }
+        }
+
+        Document group = new Document("_id", new Document("$subtract", List.of("$ts",
+                new Document("$mod", List.of(new Document("$toLong", "$ts"), bucketMs)))))
+                .append("count", new Document("$sum", 1));
+        for (int i = 0; i < fields.size(); i++) {
+            String path = "$payload." + fields.get(i);
+            // $min/$max сравнивают и строки — оставляем только числа, null аккумуляторы пропускают
+            Document numeric = new Document("$cond", List.of(new Document("$isNumber", path), path, null));
+            group.append("f" + i + "_avg", new Document("$avg", numeric))
+                    .append("f" + i + "_min", new Document("$min", numeric))
+                    .append("f" + i + "_max", new Document("$max", numeric));
+        }
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("deviceId", deviceId)
+                        .append("ts", new Document("$gte", Date.from(from)).append("$lt", Date.from(to)))),
+                new Document("$group", group),
+                new Document("$sort", new Document("_id", 1)));
+
+        List<ReadingBucket> buckets = new ArrayList<>();
+        for (Document result : mongoTemplate.getCollection(mongoTemplate.getCollectionName(IotMessage.class))
+                .aggregate(pipeline)
+                .allowDiskUse(true)) {
+            Map<String, ReadingBucket.FieldStats> stats = new LinkedHashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                Number avg = (Number) result.get("f" + i + "_avg");
+                if (avg != null) {
+                    stats.put(fields.get(i), new ReadingBucket.FieldStats(avg.doubleValue(),
+                            ((Number) result.get("f" + i + "_min")).doubleValue(),
+                            ((Number) result.get("f" + i + "_max")).doubleValue()));
+                }
+            }
+            buckets.add(new ReadingBucket(result.getDate("_id").toInstant(),
+                    ((Number) result.get("count")).longValue(), stats));
+        }
+        return buckets;
+    }
+
+    private Query rangeQuery(String deviceId, Instant from, Instant to, String cursor) {
+        checkRange(from, to);
+        Criteria criteria = Criteria.where("deviceId").is(deviceId).and("ts").gte(from).lt(to);
+        if (cursor != null && !cursor.isEmpty()) {
+            Cursor after = decodeCursor(cursor);
+            criteria = criteria.orOperator(
+                    Criteria.where("ts").gt(after.ts()),
+                    Criteria.where("ts").is(after.ts()).and("id").gt(after.id()));
+        }
+        return Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "ts", "id"));
+    }
+
+    private void checkRange(Instant from, Instant to) {
+        if (!from.isBefore(to)) {
+            throw new InvalidQueryException("from must be before to");
+        }
+    }
+
+    private static String encodeCursor(IotMessage last) {
+        String raw = last.getTs().toEpochMilli() + ":" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new Cursor(Instant.ofEpochMilli(Long.parseLong(raw.substring(0, separator))), raw.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidQueryException("malformed cursor");
+        }
+    }
+
+    private record Cursor(Instant ts, String id) {
+    }
+}
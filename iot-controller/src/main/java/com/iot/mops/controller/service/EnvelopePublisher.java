@@ -0,0 +1,208 @@
+package com.iot.mops.controller.service;
+
+import com.iot.mops.common.amqp.DeviceShards;
+import com.iot.mops.common.amqp.TraceHeaders;
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.controller.metrics.IotMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes accepted {@link IotMessage}s to the events exchange; the rule engine reads them as
+ * {@code QueueEnvelope}s. Each message is converted once and the encoded body is reused on retries.
+ * Confirms mode is on with {@code spring.rabbitmq.publisher-confirm-type: correlated}, which Spring Boot applies to
+ * the connection factory. In it every publish carries {@link CorrelationData}, at most {@code max-in-flight} messages may be
+ * unconfirmed at once, and nacked messages are re-published off the connection thread with a linear backoff.
+ * With {@code app.rabbit.shards.count} set, messages are routed to the device's shard instead of by device id.
+ * Every publish attempt stamps {@link TraceHeaders#PUBLISHED_AT}, from which the rule engine times queue dwell.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EnvelopePublisher {
+
+    private static final String EXCHANGE = "iot.events";
+    private static final String ROUTING_KEY_TEMPLATE = "device.%s";
+
+    private final RabbitTemplate rabbitTemplate;
+    private final IotMetrics metrics;
+
+    @Value("${app.rabbit.shards.count:0}")
+    private int shards;
+
+    @Value("${spring.rabbitmq.publisher-confirm-type:none}")
+    private String confirmType;
+
+    @Value("${app.rabbit.confirms.max-in-flight:1024}")
+    private int maxInFlight;
+
+    @Value("${app.rabbit.confirms.acquire-timeout-ms:1000}")
+    private long acquireTimeoutMs;
+
+    @Value("${app.rabbit.confirms.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.rabbit.confirms.retry-backoff-ms:100}")
+    private long retryBackoffMs;
+
+    @Value("${app.rabbit.confirms.shutdown-timeout-ms:5000}")
+    private long shutdownTimeoutMs;
+
+    private boolean confirmsEnabled;
+    private Semaphore window;
+    private ScheduledExecutorService retryExecutor;
+
+    @PostConstruct
+    void init() {
+        confirmsEnabled = "correlated".equalsIgnoreCase(confirmType);
+        if (!confirmsEnabled) {
+            return;
+        }
+        window = new Semaphore(maxInFlight);
+        metrics.bindPublishWindow(() -> maxInFlight - window.availablePermits());
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "iot-publish-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Publisher confirms enabled maxInFlight={} maxAttempts={}", maxInFlight, maxAttempts);
+    }
+
+    public void publish(IotMessage message) {
+        send(rabbitTemplate, message, encode(message), 1);
+    }
+
+    /**
+     * Publishes over one channel the messages whose entry in {@code errors} is {@code null}. Publishing stops at the
+     * first message that cannot be sent; it and every later message get an error, the ones sent before keep
+     * {@code null}. With confirms enabled a message counts as sent once it is written, not once it is confirmed.
+     */
+    public void publishAll(List<IotMessage> messages, String[] errors) {
+        int[] sent = new int[1];
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (int i = 0; i < messages.size(); i++) {
+                    if (errors[i] == null) {
+                        IotMessage message = messages.get(i);
+                        send(operations, message, encode(message), 1);
+                    }
+                    sent[0] = i + 1;
+                }
+                return null;
+            });
+        } catch (AmqpException e) {
+            log.warn("Batch publish failed after {} of {} messages: {}", sent[0], messages.size(), e.getMessage());
+            for (int i = sent[0]; i < errors.length; i++) {
+                if (errors[i] == null) {
+                    errors[i] = "publish failed: " + e.getMessage();
+                }
+            }
+        }
+    }
+
+    private Message encode(IotMessage message) {
+        return rabbitTemplate.getMessageConverter().toMessage(message, new MessageProperties());
+    }
+
+    private void send(RabbitOperations operations, IotMessage message, Message body, int attempt) {
+        String routingKey = shards > 0
+                ? DeviceShards.routingKey(DeviceShards.shardOf(message.getDeviceId(), shards))
+                : ROUTING_KEY_TEMPLATE.formatted(message.getDeviceId());
+        if (!confirmsEnabled) {
+            stamp(body);
+            operations.send(EXCHANGE, routingKey, body);
+            return;
+        }
+
+        acquire();
+        // Ожидание слота в окне подтверждений относится к публикации, а не к очереди
+        stamp(body);
+        CorrelationData correlation = new CorrelationData(message.getCorrelationId());
+        long startNanos = System.nanoTime();
+        try {
+            operations.send(EXCHANGE, routingKey, body, correlation);
+        } catch (RuntimeException e) {
+            // Подтверждение для неотправленного сообщения не придёт — освобождаем слот сами
+            window.release();
+            throw e;
+        }
+        correlation.getFuture().whenComplete((confirm, ex) -> {
+            window.release();
+            metrics.recordPublishConfirm(System.nanoTime() - startNanos);
+            if (ex == null && confirm.isAck()) {
+                ReturnedMessage returned = correlation.getReturned();
+                if (returned != null) {
+                    metrics.incrementPublishReturned();
+                    log.warn("Message {} returned unroutable: {} {}", message.getCorrelationId(),
+                            returned.getReplyCode(), returned.getReplyText());
+                }
+                return;
+            }
+            String reason = ex != null ? ex.getMessage() : confirm.getReason();
+            onNack(message, body, attempt, reason);
+        });
+    }
+
+    private static void stamp(Message body) {
+        body.getMessageProperties().setHeader(TraceHeaders.PUBLISHED_AT, System.currentTimeMillis());
+    }
+
+    private void onNack(IotMessage message, Message body, int attempt, String reason) {
+        if (attempt >= maxAttempts) {
+            metrics.incrementPublishFailed();
+            log.error("Message {} not confirmed after {} attempts: {}", message.getCorrelationId(), attempt, reason);
+            return;
+        }
+        metrics.incrementPublishRetries();
+        log.warn("Message {} nacked (attempt {}): {}", message.getCorrelationId(), attempt, reason);
+        retryExecutor.schedule(() -> {
+            try {
+                send(rabbitTemplate, message, body, attempt + 1);
+            } catch (RuntimeException e) {
+                onNack(message, body, attempt + 1, e.getMessage());
+            }
+        }, retryBackoffMs * attempt, TimeUnit.MILLISECONDS);
+    }
+
+    private void acquire() {
+        try {
+            if (!window.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                metrics.incrementPublishWindowFull();
+                throw new PublishWindowFullException(maxInFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PublishWindowFullException(maxInFlight);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (!confirmsEnabled) {
+            return;
+        }
+        if (window.tryAcquire(maxInFlight, shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+            window.release(maxInFlight);
+        } else {
+            log.warn("{} messages still unconfirmed at shutdown", maxInFlight - window.availablePermits());
+        }
+        retryExecutor.shutdown();
+    }
+}
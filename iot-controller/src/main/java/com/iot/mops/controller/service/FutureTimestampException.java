@@ -0,0 +1,12 @@
+package com.iot.mops.controller.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class FutureTimestampException extends RuntimeException {
+
+    public FutureTimestampException(String message) {
+        super(message);
+    }
+}
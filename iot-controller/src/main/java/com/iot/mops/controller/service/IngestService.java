@@ -1,18 +1,34 @@
 package com.iot.mops.controller.service;
 
+import com.iot.mops.common.dto.IngestItemStatus;
 import com.iot.mops.common.dto.IngestRequest;
 import com.iot.mops.common.dto.IotMessage;
-import com.iot.mops.common.dto.QueueEnvelope;
+import com.iot.mops.common.id.CorrelationIds;
 import com.iot.mops.controller.metrics.IotMetrics;
+import com.iot.mops.controller.store.DeviceStateCache;
 import com.iot.mops.controller.store.IotMessageRepository;
+import com.iot.mops.controller.store.IotMessageWriteBehindBuffer;
+import com.iot.mops.controller.store.WriteBehindOverflowException;
+import com.mongodb.bulk.BulkWriteError;
 import io.micrometer.core.instrument.Timer;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.AmqpException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -20,46 +36,188 @@ import java.util.UUID;
 public class IngestService {
 
     private final IotMessageRepository repository;
-    private final RabbitTemplate rabbitTemplate;
+    private final IotMessageWriteBehindBuffer writeBehindBuffer;
+    private final MongoTemplate mongoTemplate;
+    private final EnvelopePublisher publisher;
+    private final DeviceStateCache deviceStateCache;
     private final IotMetrics metrics;
+    private final Validator validator;
 
-    private static final String EXCHANGE = "iot.events";
-    private static final String ROUTING_KEY_TEMPLATE = "device.%s";
+    @Value("${app.ingest.max-future-skew-sec:60}")
+    private long maxFutureSkewSec;
 
-    public void ingest(IngestRequest request) {
+    /**
+     * Stores and publishes one reading. A reading that was stored but could not be published is reported as
+     * {@code STORED} rather than failing the request, as in {@link #ingestBatch}, so that the client does not resend
+     * a reading that would be stored twice.
+     */
+    public IngestItemStatus ingest(IngestRequest request) {
         metrics.incrementMessagesReceived();
+        Instant now = Instant.now();
+        String future = checkNotFuture(request.getTs(), now);
+        if (future != null) {
+            metrics.incrementValidationErrors();
+            throw new FutureTimestampException(future);
+        }
         Timer.Sample timer = metrics.startTimer();
-        
+
         try {
-            String correlationId = UUID.randomUUID().toString();
-            Instant ingestedAt = Instant.now();
+            String correlationId = CorrelationIds.next();
+            IotMessage message = IotMessage.accepted(request, now, correlationId);
+
+            if (writeBehindBuffer.isEnabled()) {
+                writeBehindBuffer.enqueue(message);
+            } else {
+                repository.insert(message);
+            }
+
+            try {
+                publisher.publish(message);
+            } catch (AmqpException e) {
+                log.warn("Message {} stored but not published: {}", correlationId, e.getMessage());
+                return IngestItemStatus.stored(0, request.getDeviceId(), correlationId,
+                        "publish failed: " + e.getMessage());
+            }
+            deviceStateCache.update(message);
 
-            IotMessage message = IotMessage.builder()
-                    .deviceId(request.getDeviceId())
-                    .ts(request.getTs())
-                    .payload(request.getPayload())
-                    .ingestedAt(ingestedAt)
-                    .correlationId(correlationId)
-                    .build();
-
-            repository.save(message);
-
-            QueueEnvelope envelope = QueueEnvelope.builder()
-                    .deviceId(request.getDeviceId())
-                    .ts(request.getTs())
-                    .payload(request.getPayload())
-                    .ingestedAt(ingestedAt)
-                    .correlationId(correlationId)
-                    .build();
-
-            rabbitTemplate.convertAndSend(EXCHANGE, ROUTING_KEY_TEMPLATE.formatted(request.getDeviceId()), envelope);
-            
             metrics.incrementMessagesProcessed();
             metrics.recordDeviceMessage(request.getDeviceId());
-            
+
             log.debug("Processed message from {} with correlationId {}", request.getDeviceId(), correlationId);
+            return IngestItemStatus.accepted(0, request.getDeviceId(), correlationId);
         } finally {
             metrics.stopTimer(timer);
         }
     }
+
+    /**
+     * Validates each request on its own, then stores the valid ones with one unordered bulk insert and publishes
+     * them in a single pass over one channel. Statuses follow the order of {@code requests}, indexed from {@code indexOffset}.
+     * An item that was stored but could not be published is reported as {@code STORED}, not rejected, so that the
+     * client does not resend it.
+     */
+    public List<IngestItemStatus> ingestBatch(List<IngestRequest> requests, int indexOffset) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+        metrics.incrementMessagesReceived(requests.size());
+        metrics.recordBatchSize(requests.size());
+        Timer.Sample timer = metrics.startTimer();
+
+        try {
+            Instant ingestedAt = Instant.now();
+            String[] errors = new String[requests.size()];
+            List<IotMessage> messages = new ArrayList<>(requests.size());
+            List<Integer> positions = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                IngestRequest request = requests.get(i);
+                String violation = validate(request);
+                if (violation == null) {
+                    violation = checkNotFuture(request.getTs(), ingestedAt);
+                }
+                if (violation != null) {
+                    errors[i] = violation;
+                    metrics.incrementValidationErrors();
+                    continue;
+                }
+                messages.add(IotMessage.accepted(request, ingestedAt, CorrelationIds.next()));
+                positions.add(i);
+            }
+
+            String[] storeErrors = new String[messages.size()];
+            if (writeBehindBuffer.isEnabled()) {
+                enqueueAll(messages, storeErrors);
+            } else {
+                bulkInsert(messages, storeErrors);
+            }
+            // Несохранённые не публикуем: их ошибка уже стоит в массиве
+            String[] publishErrors = storeErrors.clone();
+            publisher.publishAll(messages, publishErrors);
+
+            IngestItemStatus[] byPosition = new IngestItemStatus[requests.size()];
+            for (int m = 0; m < messages.size(); m++) {
+                IotMessage message = messages.get(m);
+                int i = positions.get(m);
+                if (storeErrors[m] != null) {
+                    byPosition[i] = IngestItemStatus.rejected(indexOffset + i, message.getDeviceId(), storeErrors[m]);
+                } else if (publishErrors[m] != null) {
+                    byPosition[i] = IngestItemStatus.stored(indexOffset + i, message.getDeviceId(),
+                            message.getCorrelationId(), publishErrors[m]);
+                } else {
+                    byPosition[i] = IngestItemStatus.accepted(indexOffset + i, message.getDeviceId(),
+                            message.getCorrelationId());
+                    deviceStateCache.update(message);
+                    metrics.incrementMessagesProcessed();
+                    metrics.recordDeviceMessage(message.getDeviceId());
+                }
+            }
+            List<IngestItemStatus> statuses = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                IngestItemStatus status = byPosition[i];
+                if (status == null) {
+                    String deviceId = requests.get(i) == null ? null : requests.get(i).getDeviceId();
+                    status = IngestItemStatus.rejected(indexOffset + i, deviceId, errors[i]);
+                }
+                statuses.add(status);
+            }
+
+            log.debug("Processed batch of {} messages, {} valid", requests.size(), messages.size());
+            return statuses;
+        } finally {
+            metrics.stopBatchTimer(timer);
+        }
+    }
+
+    private String validate(IngestRequest request) {
+        if (request == null) {
+            return "empty item";
+        }
+        Set<ConstraintViolation<IngestRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + " " + v.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Rejects readings stamped more than {@code app.ingest.max-future-skew-sec} ahead of the controller's clock:
+     * the rule engine's watermarks follow the newest event time of each device, so a single far-future reading
+     * would close its windows early and age out its COUNT windows.
+     */
+    private String checkNotFuture(Instant ts, Instant now) {
+        if (ts.isAfter(now.plusSeconds(maxFutureSkewSec))) {
+            return "ts is more than " + maxFutureSkewSec + "s in the future";
+        }
+        return null;
+    }
+
+    private void bulkInsert(List<IotMessage> messages, String[] errors) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, IotMessage.class)
+                    .insert(messages)
+                    .execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                errors[error.getIndex()] = "persist failed: " + error.getMessage();
+            }
+            log.warn("Bulk insert partially failed: {} of {} documents rejected", e.getErrors().size(), messages.size());
+        } catch (DataAccessException e) {
+            // Без ответа по документам считаем неудачей весь пакет
+            Arrays.fill(errors, "persist failed: " + e.getMessage());
+            log.warn("Bulk insert of {} documents failed: {}", messages.size(), e.getMessage());
+        }
+    }
+
+    private void enqueueAll(List<IotMessage> messages, String[] errors) {
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                writeBehindBuffer.enqueue(messages.get(i));
+            } catch (WriteBehindOverflowException e) {
+                errors[i] = e.getMessage();
+            }
+        }
+    }
 }
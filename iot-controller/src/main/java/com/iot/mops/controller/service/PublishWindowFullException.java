@@ -0,0 +1,13 @@
+package com.iot.mops.controller.service;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PublishWindowFullException extends AmqpException {
+
+    public PublishWindowFullException(int maxInFlight) {
+        super("Too many unconfirmed publishes in flight (max " + maxInFlight + ")");
+    }
+}
@@ -0,0 +1,277 @@
+package com.iot.mops.controller.store;
+
+import com.iot.mops.common.dto.DeviceSnapshot;
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.common.dto.TelemetryPayload;
+import com.iot.mops.controller.metrics.IotMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latest reading and rolling per-field stats of each device, kept in memory and updated on the ingest path for
+ * accepted readings only. Devices are spread over striped segments, each an access-ordered {@link LinkedHashMap}
+ * behind its own lock; a full segment drops its least recently used device, and devices silent for
+ * {@code idle-timeout-sec} are swept periodically. Stats cover the last {@code 0.5 * stats-window-sec} to
+ * {@code stats-window-sec} of ingest time, kept as two half-window slices (the running one and the previous one)
+ * so a device costs a few fixed-size objects however often it reports.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DeviceStateCache {
+
+    private static final int SEGMENTS = 64;
+    // Ограничение на число полей одного устройства, чтобы мусорные payload не раздували кэш
+    private static final int MAX_FIELDS = 64;
+
+    private final IotMetrics metrics;
+
+    @Value("${app.devices.cache.max-devices:1000000}")
+    private int maxDevices;
+
+    @Value("${app.devices.cache.idle-timeout-sec:3600}")
+    private long idleTimeoutSec;
+
+    @Value("${app.devices.cache.stats-window-sec:300}")
+    private long statsWindowSec;
+
+    private Segment[] segments;
+    private long sliceMillis;
+
+    @PostConstruct
+    void init() {
+        int perSegment = Math.max(1, maxDevices / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        sliceMillis = Math.max(1, statsWindowSec * 1000 / 2);
+        metrics.bindDeviceCache(this::size);
+    }
+
+    /**
+     * Records an accepted message as the device's latest reading.
+     */
+    public void update(IotMessage message) {
+        long now = message.getIngestedAt() != null ? message.getIngestedAt().toEpochMilli() : System.currentTimeMillis();
+        Segment segment = segmentOf(message.getDeviceId());
+        synchronized (segment) {
+            DeviceState state = segment.get(message.getDeviceId());
+            if (state == null) {
+                state = new DeviceState();
+                segment.put(message.getDeviceId(), state);
+            }
+            state.update(message, now, sliceMillis);
+        }
+    }
+
+    /**
+     * Returns the device's cached state, or {@code null} if it has not reported recently.
+     */
+    public DeviceSnapshot snapshot(String deviceId) {
+        long now = System.currentTimeMillis();
+        Segment segment = segmentOf(deviceId);
+        synchronized (segment) {
+            DeviceState state = segment.get(deviceId);
+            return state == null ? null : state.snapshot(deviceId, now, sliceMillis);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Scheduled(fixedDelayString = "${app.devices.cache.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutSec * 1000;
+        int evicted = 0;
+        for (Segment segment : segments) {
+            // Каждый сегмент под своей блокировкой, чтобы не останавливать приём целиком
+            synchronized (segment) {
+                Iterator<DeviceState> it = segment.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().lastSeen < cutoff) {
+                        it.remove();
+                        evicted++;
+                    }
+                }
+            }
+        }
+        if (evicted > 0) {
+            metrics.incrementDevicesEvicted("idle", evicted);
+            log.debug("Evicted {} idle devices from the state cache", evicted);
+        }
+    }
+
+    private Segment segmentOf(String deviceId) {
+        int h = deviceId.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private final class Segment extends LinkedHashMap<String, DeviceState> {
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DeviceState> eldest) {
+            if (size() > maxSize) {
+                metrics.incrementDevicesEvicted("size", 1);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Mutable state of one device; guarded by its segment's lock.
+     */
+    private static final class DeviceState {
+        private long lastSeen;
+        private Instant ts;
+        private Map<String, Object> payload;
+        private String correlationId;
+        private final Map<String, FieldStats> fields = new HashMap<>(8);
+
+        private void update(IotMessage message, long now, long sliceMillis) {
+            lastSeen = now;
+            ts = message.getTs();
+            payload = message.getPayload();
+            correlationId = message.getCorrelationId();
+            if (payload instanceof TelemetryPayload typed) {
+                typed.forEachNumber((name, value) -> record(name, value, now, sliceMillis));
+            } else if (payload != null) {
+                payload.forEach((name, value) -> {
+                    if (value instanceof Number number) {
+                        record(name, number.doubleValue(), now, sliceMillis);
+                    }
+                });
+            }
+        }
+
+        private void record(String name, double value, long now, long sliceMillis) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            FieldStats stats = fields.get(name);
+            if (stats == null) {
+                if (fields.size() >= MAX_FIELDS) {
+                    return;
+                }
+                stats = new FieldStats();
+                fields.put(name, stats);
+            }
+            stats.add(value, now, sliceMillis);
+        }
+
+        private DeviceSnapshot snapshot(String deviceId, long now, long sliceMillis) {
+            Map<String, DeviceSnapshot.RollingStats> stats = new LinkedHashMap<>();
+            fields.forEach((name, field) -> {
+                DeviceSnapshot.RollingStats rolling = field.read(now, sliceMillis);
+                if (rolling != null) {
+                    stats.put(name, rolling);
+                }
+            });
+            return DeviceSnapshot.builder()
+                    .deviceId(deviceId)
+                    .lastSeen(Instant.ofEpochMilli(lastSeen))
+                    .ts(ts)
+                    .payload(payload)
+                    .correlationId(correlationId)
+                    .stats(stats)
+                    .build();
+        }
+    }
+
+    /**
+     * Count/sum/min/max of one field over the current and the previous half-window slice.
+     */
+    private static final class FieldStats {
+        private final Slice current = new Slice();
+        private final Slice previous = new Slice();
+        private long currentStart = Long.MIN_VALUE;
+
+        private void add(double value, long now, long sliceMillis) {
+            long start = now - Math.floorMod(now, sliceMillis);
+            if (start > currentStart) {
+                if (start == currentStart + sliceMillis) {
+                    previous.copyFrom(current);
+                } else {
+                    previous.reset();
+                }
+                current.reset();
+                currentStart = start;
+            }
+            current.add(value);
+        }
+
+        private DeviceSnapshot.RollingStats read(long now, long sliceMillis) {
+            long start = now - Math.floorMod(now, sliceMillis);
+            Slice merged = new Slice();
+            if (currentStart >= start - sliceMillis) {
+                merged.merge(current);
+            }
+            if (currentStart >= start) {
+                merged.merge(previous);
+            }
+            if (merged.count == 0) {
+                return null;
+            }
+            return new DeviceSnapshot.RollingStats(merged.count, merged.min, merged.max, merged.sum / merged.count);
+        }
+    }
+
+    private static final class Slice {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private void merge(Slice other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        private void copyFrom(Slice other) {
+            count = other.count;
+            sum = other.sum;
+            min = other.min;
+            max = other.max;
+        }
+
+        private void reset() {
+            count = 0;
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+    }
+}
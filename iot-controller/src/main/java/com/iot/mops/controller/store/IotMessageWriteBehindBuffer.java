@@ -0,0 +1,187 @@
+package com.iot.mops.controller.store;
+
+import com.iot.mops.common.dto.IotMessage;
+import com.iot.mops.controller.metrics.IotMetrics;
+import com.mongodb.MongoException;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in write-behind persistence for {@link IotMessage}s: the ingest thread only enqueues into a bounded
+ * buffer, and a single background flusher drains it to Mongo in size- or time-triggered bulk inserts.
+ * Messages were already acknowledged to the client, so a batch that fails on Mongo is retried with a growing
+ * backoff until it is written; meanwhile the buffer fills up and ingest is pushed back with 429.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IotMessageWriteBehindBuffer {
+
+    private final MongoTemplate mongoTemplate;
+    private final IotMetrics metrics;
+
+    @Value("${app.ingest.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.ingest.write-behind.capacity:10000}")
+    private int capacity;
+
+    @Value("${app.ingest.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.ingest.write-behind.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${app.ingest.write-behind.overflow:reject}")
+    private String overflow;
+
+    @Value("${app.ingest.write-behind.block-timeout-ms:1000}")
+    private long blockTimeoutMs;
+
+    @Value("${app.ingest.write-behind.max-backoff-ms:10000}")
+    private long maxBackoffMs;
+
+    @Value("${app.ingest.write-behind.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private BlockingQueue<IotMessage> queue;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(capacity);
+        metrics.bindWriteBehindQueue(queue);
+        running = true;
+        flusher = new Thread(this::drainLoop, "iot-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Write-behind persistence enabled capacity={} batchSize={} flushInterval={}ms overflow={}",
+                capacity, batchSize, flushIntervalMs, overflow);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Hands a message to the flusher. Depending on {@code app.ingest.write-behind.overflow} a full buffer either
+     * rejects immediately or blocks for up to {@code block-timeout-ms}; both end in {@link WriteBehindOverflowException}.
+     */
+    public void enqueue(IotMessage message) {
+        if (!running) {
+            throw new IllegalStateException("Write-behind buffer is not running");
+        }
+        boolean offered;
+        if ("block".equals(overflow)) {
+            try {
+                offered = queue.offer(message, blockTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                offered = false;
+            }
+        } else {
+            offered = queue.offer(message);
+        }
+        if (!offered) {
+            metrics.incrementWriteBehindRejected();
+            throw new WriteBehindOverflowException(capacity);
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.join(shutdownTimeoutMs);
+        if (flusher.isAlive()) {
+            log.warn("Write-behind flusher did not finish in {}ms, {} messages left unflushed", shutdownTimeoutMs, queue.size());
+        } else {
+            log.info("Write-behind buffer flushed on shutdown");
+        }
+    }
+
+    private void drainLoop() {
+        List<IotMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                IotMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    IotMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // Сюда доходят только ошибки, которые повтор не исправит (например, кодирования документа)
+                log.error("Write-behind flusher failed, dropping {} messages", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<IotMessage> batch) throws InterruptedException {
+        // _id назначен при создании сообщения: в обычной коллекции повтор упрётся в уникальный _id,
+        // а в time-series _id не уникален, и повтор после частично применённой вставки может дать дубликат
+        long backoffMs = flushIntervalMs;
+        for (int attempt = 1; ; attempt++) {
+            Timer.Sample sample = metrics.startTimer();
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, IotMessage.class)
+                        .insert(batch)
+                        .execute();
+                metrics.recordWriteBehindFlush(sample, batch.size());
+                return;
+            } catch (BulkOperationException e) {
+                // Ошибки отдельных документов (например, дубликаты) не повторяем — остальные уже записаны
+                metrics.recordWriteBehindFlush(sample, batch.size());
+                log.warn("Write-behind flush rejected {} of {} documents", e.getErrors().size(), batch.size());
+                return;
+            } catch (DataAccessException | MongoException e) {
+                // Клиент уже получил 202: не выбрасываем пакет, а ждём MongoDB, пока буфер не упрётся в ёмкость
+                metrics.recordWriteBehindFlush(sample, batch.size());
+                metrics.incrementWriteBehindRetries();
+                log.warn("Write-behind flush of {} messages failed (attempt {}), retrying in {}ms: {}",
+                        batch.size(), attempt, backoffMs, e.getMessage());
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.iot.mops.controller.store;
+
+import com.iot.mops.common.dto.IotMessage;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.TimeSeriesGranularity;
+import com.mongodb.client.model.TimeSeriesOptions;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@code iot_messages} collection and its indexes on startup, once all singletons exist but before
+ * the web server starts accepting requests, so the first insert cannot implicitly create a regular collection.
+ * With {@code app.mongo.schema.messages.time-series} a missing collection is created as a time-series collection
+ * (time field {@code ts}, meta field {@code deviceId}); an existing regular collection is left as is, since
+ * MongoDB cannot convert it in place. Failures are logged and do not stop the service.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MongoSchemaInitializer implements SmartInitializingSingleton {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${app.mongo.schema.messages.time-series:false}")
+    private boolean timeSeries;
+
+    @Value("${app.mongo.schema.messages.granularity:seconds}")
+    private String granularity;
+
+    @Value("${app.mongo.schema.messages.expire-after-sec:0}")
+    private long expireAfterSec;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        String collection = mongoTemplate.getCollectionName(IotMessage.class);
+        try {
+            Document existing = mongoTemplate.getDb().listCollections()
+                    .filter(Filters.eq("name", collection))
+                    .first();
+            if (existing == null && timeSeries) {
+                createTimeSeries(mongoTemplate.getDb(), collection);
+                ensureHistoryIndex(collection);
+            } else if (existing != null && "timeseries".equals(existing.getString("type"))) {
+                log.info("Collection {} is a time-series collection", collection);
+                ensureHistoryIndex(collection);
+            } else {
+                if (timeSeries) {
+                    log.warn("Collection {} already exists as a regular collection; migrate it to use time-series", collection);
+                }
+                ensureRegularIndexes(collection);
+            }
+        } catch (DataAccessException | MongoException e) {
+            log.error("Failed to initialize schema of {}: {}", collection, e.getMessage());
+        }
+    }
+
+    private void createTimeSeries(MongoDatabase db, String collection) {
+        CreateCollectionOptions options = new CreateCollectionOptions()
+                .timeSeriesOptions(new TimeSeriesOptions("ts")
+                        .metaField("deviceId")
+                        .granularity(TimeSeriesGranularity.valueOf(granularity.toUpperCase())));
+        if (expireAfterSec > 0) {
+            options.expireAfter(expireAfterSec, TimeUnit.SECONDS);
+        }
+        db.createCollection(collection, options);
+        log.info("Created time-series collection {} granularity={} expireAfterSec={}", collection, granularity, expireAfterSec);
+    }
+
+    /**
+     * Index of the history read path: keyset pages on (ts, id) of one device. A time-series collection gets the
+     * same index, as the (deviceId, ts) index MongoDB builds itself cannot serve the {@code _id} tiebreaker.
+     */
+    private void ensureHistoryIndex(String collection) {
+        mongoTemplate.indexOps(collection).ensureIndex(new Index()
+                .on("deviceId", Sort.Direction.ASC)
+                .on("ts", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("deviceId_ts_id"));
+    }
+
+    private void ensureRegularIndexes(String collection) {
+        ensureHistoryIndex(collection);
+        if (expireAfterSec > 0) {
+            mongoTemplate.indexOps(collection).ensureIndex(new Index()
+                    .on("ts", Sort.Direction.ASC)
+                    .expire(expireAfterSec, TimeUnit.SECONDS)
+                    .named("ts_ttl"));
+        }
+        log.info("Ensured indexes on {} expireAfterSec={}", collection, expireAfterSec);
+    }
+}
@@ -0,0 +1,12 @@
+package com.iot.mops.controller.store;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class WriteBehindOverflowException extends RuntimeException {
+
+    public WriteBehindOverflowException(int capacity) {
+        super("Write-behind buffer is full (capacity " + capacity + ")");
+    }
+}
@@ -0,0 +1,409 @@
+package com.iot.mops.ruleengine.alert;
+
+import com.iot.mops.common.dto.Alert;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.tracing.PipelineTracer;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Last stage between a firing rule and Mongo. The first trigger of a rule for a device opens an alert; further
+ * triggers within {@code app.alerts.cooldown-ms} are suppressed and folded into the open alert's
+ * {@code repeatCount}. New alerts and repeat counts are written by a background flusher in unordered bulk
+ * operations; a write that fails on Mongo is retried with a growing backoff, so the queue fills up and pushes back
+ * on the listener instead of losing alerts whose messages were acked. Callers must not submit the same
+ * (rule, device) pair from two threads at once, which the partition workers already guarantee.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AlertPipeline {
+
+    private final MongoTemplate mongoTemplate;
+    private final RuleMetrics metrics;
+    private final PipelineTracer tracer;
+
+    @Value("${app.alerts.cooldown-ms:60000}")
+    private long cooldownMs;
+
+    @Value("${app.alerts.capacity:10000}")
+    private int capacity;
+
+    @Value("${app.alerts.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.alerts.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${app.alerts.max-backoff-ms:10000}")
+    private long maxBackoffMs;
+
+    @Value("${app.alerts.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private final Map<String, OpenAlert> openAlerts = new ConcurrentHashMap<>();
+    // Открытые алерты в порядке открытия: cooldown истекает с головы, без обхода всей карты
+    private final Queue<OpenAlert> byOpenedAt = new ConcurrentLinkedQueue<>();
+    // Алерты с повторами, ещё не отправленными в MongoDB
+    private final Queue<OpenAlert> withRepeats = new ConcurrentLinkedQueue<>();
+    // Обновления повторов, не записанные из-за ошибки MongoDB; доступ только из потока flusher
+    private final Map<String, RepeatUpdate> failedRepeats = new LinkedHashMap<>();
+    private BlockingQueue<Alert> pending;
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    void start() {
+        pending = new ArrayBlockingQueue<>(capacity);
+        metrics.bindAlertQueue(pending);
+        running = true;
+        flusher = new Thread(this::flushLoop, "alert-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Records a trigger. Returns {@code true} if it opened a new alert, {@code false} if it was suppressed.
+     * Blocks while the write queue is full, which pushes back on the listener through its prefetch.
+     */
+    public boolean submit(Alert alert) {
+        return submit(alert, this::enqueue);
+    }
+
+    /**
+     * Same as {@link #submit(Alert)}, but an opened alert is handed to {@code sink} instead of the write queue.
+     * The caller must then persist it with {@link #writeAll}.
+     */
+    public boolean submit(Alert alert, Consumer<Alert> sink) {
+        String key = key(alert);
+        long now = alert.getTriggeredAt().toEpochMilli();
+        OpenAlert open = openAlerts.get(key);
+        // Алерт, который flusher уже закрыл по истечении cooldown, повтор не принимает — открываем новый
+        if (open != null && now - open.openedAt < cooldownMs && open.repeat(now, withRepeats)) {
+            metrics.incrementAlertsSuppressed();
+            return false;
+        }
+
+        alert.setId(new ObjectId().toHexString());
+        alert.setLastTriggeredAt(alert.getTriggeredAt());
+        if (cooldownMs > 0) {
+            OpenAlert opened = new OpenAlert(key, alert.getId(), now);
+            openAlerts.put(key, opened);
+            byOpenedAt.add(opened);
+        }
+        sink.accept(alert);
+        return true;
+    }
+
+    /**
+     * Writes alerts opened through {@link #submit(Alert, Consumer)} in one bulk insert on the calling thread,
+     * retrying Mongo failures like the background flusher until the insert goes through. If it still fails
+     * (interrupted, or an error a retry cannot fix), the alerts are forgotten before the exception is rethrown, so
+     * that triggers of a redelivered message open them again instead of being suppressed as repeats.
+     */
+    public void writeAll(Collection<Alert> alerts) {
+        if (alerts.isEmpty()) {
+            return;
+        }
+        List<Alert> batch = new ArrayList<>(alerts);
+        try {
+            insertWithRetry(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            forget(batch);
+            throw new IllegalStateException("Interrupted while writing " + batch.size() + " alerts", e);
+        } catch (RuntimeException e) {
+            forget(batch);
+            throw e;
+        }
+    }
+
+    private void enqueue(Alert alert) {
+        if (!running) {
+            // Пайплайн уже остановлен — пишем синхронно, чтобы не потерять алерт
+            insertOrForget(List.of(alert));
+            return;
+        }
+        try {
+            pending.put(alert);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            insertOrForget(List.of(alert));
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        flusher.join(shutdownTimeoutMs);
+        if (flusher.isAlive()) {
+            log.warn("Alert flusher did not finish in {}ms, {} alerts left unwritten", shutdownTimeoutMs, pending.size());
+        }
+    }
+
+    private void flushLoop() {
+        List<Alert> batch = new ArrayList<>(batchSize);
+        long nextRepeatFlush = System.currentTimeMillis() + flushIntervalMs;
+        while (running || !pending.isEmpty()) {
+            try {
+                Alert first = pending.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, batchSize - 1);
+                    insertWithRetry(batch);
+                }
+                if (System.currentTimeMillis() >= nextRepeatFlush) {
+                    flushRepeats(System.currentTimeMillis());
+                    nextRepeatFlush = System.currentTimeMillis() + flushIntervalMs;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                // Сюда доходят только ошибки, которые повтор не исправит
+                log.error("Alert flush failed, dropping {} alerts", batch.size(), e);
+                forget(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+        flushRepeats(Long.MAX_VALUE);
+    }
+
+    private void insertWithRetry(List<Alert> batch) throws InterruptedException {
+        long backoffMs = flushIntervalMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                insert(batch);
+                return;
+            } catch (DataAccessException | MongoException e) {
+                log.warn("Alert insert of {} alerts failed (attempt {}), retrying in {}ms: {}",
+                        batch.size(), attempt, backoffMs, e.getMessage());
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+            }
+        }
+    }
+
+    private void insertOrForget(List<Alert> alerts) {
+        try {
+            insert(alerts);
+        } catch (RuntimeException e) {
+            forget(alerts);
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts the alerts and marks the ones that were written. Throws if Mongo could not take the batch at all.
+     */
+    private void insert(List<Alert> alerts) {
+        Timer.Sample sample = metrics.startTimer();
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Alert.class)
+                    .insert(alerts)
+                    .execute();
+            written(alerts);
+        } catch (BulkOperationException e) {
+            // Дубликат _id означает, что документ записала предыдущая попытка
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    failed.add(error.getIndex());
+                }
+            }
+            List<Alert> written = new ArrayList<>(alerts.size());
+            List<Alert> rejected = new ArrayList<>(failed.size());
+            for (int i = 0; i < alerts.size(); i++) {
+                (failed.contains(i) ? rejected : written).add(alerts.get(i));
+            }
+            written(written);
+            forget(rejected);
+            if (!rejected.isEmpty()) {
+                log.warn("Alert bulk insert rejected {} of {} alerts", rejected.size(), alerts.size());
+            }
+        } finally {
+            metrics.stopAlertFlushTimer(sample);
+        }
+    }
+
+    private void written(List<Alert> alerts) {
+        metrics.incrementAlertsWritten(alerts.size());
+        tracer.alertsWritten(alerts, System.currentTimeMillis());
+        for (Alert alert : alerts) {
+            OpenAlert open = openAlerts.get(key(alert));
+            if (open != null && open.alertId.equals(alert.getId())) {
+                open.written = true;
+            }
+        }
+    }
+
+    /**
+     * Drops the open state of alerts that were not written, so the next trigger opens them again.
+     */
+    private void forget(List<Alert> alerts) {
+        for (Alert alert : alerts) {
+            OpenAlert open = openAlerts.get(key(alert));
+            if (open != null && open.alertId.equals(alert.getId())) {
+                open.close();
+                openAlerts.remove(open.key, open);
+            }
+        }
+    }
+
+    private static String key(Alert alert) {
+        return alert.getRuleId() + '|' + alert.getDeviceId();
+    }
+
+    /**
+     * Writes accumulated repeat counts and forgets alerts whose cooldown ended before {@code nowMillis}.
+     */
+    private void flushRepeats(long nowMillis) {
+        List<RepeatUpdate> updates = new ArrayList<>(failedRepeats.values());
+        failedRepeats.clear();
+
+        OpenAlert head;
+        while ((head = byOpenedAt.peek()) != null && nowMillis - head.openedAt >= cooldownMs) {
+            if (!head.written && !head.closed) {
+                // Документ ещё в очереди на вставку — более поздние тем более
+                break;
+            }
+            byOpenedAt.poll();
+            openAlerts.remove(head.key, head);
+            // После закрытия повторы в этот алерт не попадают, поэтому забранный остаток окончательный
+            RepeatUpdate update = head.close();
+            if (update != null && head.written) {
+                updates.add(update);
+            }
+        }
+
+        List<OpenAlert> notWritten = new ArrayList<>();
+        OpenAlert open;
+        while ((open = withRepeats.poll()) != null) {
+            if (!open.written) {
+                if (!open.closed) {
+                    notWritten.add(open);
+                }
+                continue;
+            }
+            RepeatUpdate update = open.drain();
+            if (update != null) {
+                updates.add(update);
+            }
+        }
+        withRepeats.addAll(notWritten);
+
+        if (updates.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Alert.class);
+        for (RepeatUpdate update : updates) {
+            bulk.updateOne(Query.query(Criteria.where("_id").is(new ObjectId(update.alertId()))),
+                    new Update().inc("repeatCount", update.repeats())
+                            .max("lastTriggeredAt", Instant.ofEpochMilli(update.lastTriggeredAt())));
+        }
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            log.warn("Repeat count update rejected for {} of {} alerts", e.getErrors().size(), updates.size());
+        } catch (RuntimeException e) {
+            // Счётчики не теряем: сливаем по алерту и повторяем при следующем сбросе
+            for (RepeatUpdate update : updates) {
+                failedRepeats.merge(update.alertId(), update, RepeatUpdate::plus);
+            }
+            log.warn("Failed to update repeat counts of {} alerts, will retry: {}", updates.size(), e.getMessage());
+        }
+    }
+
+    private record RepeatUpdate(String alertId, int repeats, long lastTriggeredAt) {
+
+        RepeatUpdate plus(RepeatUpdate other) {
+            return new RepeatUpdate(alertId, repeats + other.repeats, Math.max(lastTriggeredAt, other.lastTriggeredAt));
+        }
+    }
+
+    /**
+     * Repeats are counted and drained under the instance lock, so the flusher closing an alert and a worker
+     * folding a trigger into it cannot lose a repeat between them.
+     */
+    private static final class OpenAlert {
+        private final String key;
+        private final String alertId;
+        private final long openedAt;
+        private int repeats;
+        private long lastTriggeredAt;
+        private boolean queued;
+        private volatile boolean closed;
+        private volatile boolean written;
+
+        private OpenAlert(String key, String alertId, long openedAt) {
+            this.key = key;
+            this.alertId = alertId;
+            this.openedAt = openedAt;
+            this.lastTriggeredAt = openedAt;
+        }
+
+        /**
+         * Counts a suppressed trigger, or returns {@code false} if the alert is already closed.
+         */
+        synchronized boolean repeat(long triggeredAt, Queue<OpenAlert> withRepeats) {
+            if (closed) {
+                return false;
+            }
+            repeats++;
+            lastTriggeredAt = Math.max(lastTriggeredAt, triggeredAt);
+            if (!queued) {
+                queued = true;
+                withRepeats.add(this);
+            }
+            return true;
+        }
+
+        synchronized RepeatUpdate drain() {
+            queued = false;
+            if (repeats == 0) {
+                return null;
+            }
+            RepeatUpdate update = new RepeatUpdate(alertId, repeats, lastTriggeredAt);
+            repeats = 0;
+            return update;
+        }
+
+        synchronized RepeatUpdate close() {
+            closed = true;
+            return drain();
+        }
+    }
+}
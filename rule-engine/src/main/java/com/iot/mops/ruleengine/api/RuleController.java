@@ -0,0 +1,39 @@
+package com.iot.mops.ruleengine.api;
+
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleRegistry;
+import com.iot.mops.ruleengine.rule.RuleSet;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/rules")
+@RequiredArgsConstructor
+public class RuleController {
+
+    private final RuleRegistry ruleRegistry;
+
+    @GetMapping
+    public Map<String, String> rules() {
+        return describe(ruleRegistry.current());
+    }
+
+    @PostMapping("/reload")
+    public Map<String, String> reload() {
+        return describe(ruleRegistry.reload());
+    }
+
+    private Map<String, String> describe(RuleSet ruleSet) {
+        Map<String, String> rules = new LinkedHashMap<>();
+        for (CompiledRule rule : ruleSet.rules()) {
+            rules.put(rule.id(), rule.condition());
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,308 @@
+package com.iot.mops.ruleengine.checkpoint;
+
+import com.iot.mops.common.amqp.DeviceShards;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleRegistry;
+import com.iot.mops.ruleengine.rule.RuleSet;
+import com.iot.mops.ruleengine.timer.DeviceTimers;
+import com.iot.mops.ruleengine.window.DeviceWindow;
+import com.iot.mops.ruleengine.window.WindowStore;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the window state of {@link WindowStore} in the {@code window_checkpoints} collection, one document per
+ * device. Every {@code app.rules.checkpoint.interval-ms} each partition worker serializes the devices changed since
+ * the previous checkpoint, and the changes are written in one unordered bulk upsert; a failed write is retried
+ * with the next checkpoint. On startup, before the listeners start, the collection is read back and the windows
+ * are installed on their partition workers.
+ * <p>
+ * With {@code app.rules.checkpoint.ack-after-checkpoint} a message is acked only once a checkpoint covering its
+ * effect on the windows has been written, so a crash can only replay messages the restored state has not seen.
+ * Otherwise messages are acked right after evaluation and a crash loses up to one interval of window readings.
+ * <p>
+ * In the sharded topology documents also carry the device's shard and the shard count it was computed for, and
+ * state is restored shard by shard as this instance claims shards instead of all at once on startup. Documents
+ * written without shards or under another shard count are assigned by recomputing the shard from the device id.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WindowCheckpointer {
+
+    public static final String COLLECTION = "window_checkpoints";
+
+    private static final int RESTORE_BATCH = 10_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final WindowStore windowStore;
+    private final DevicePartitioner partitioner;
+    private final RuleRegistry ruleRegistry;
+    private final DeviceTimers deviceTimers;
+    private final RuleMetrics metrics;
+
+    @Value("${app.rules.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.rules.checkpoint.ack-after-checkpoint:false}")
+    private boolean ackAfterCheckpoint;
+
+    @Value("${app.rabbit.shards.count:0}")
+    private int shards;
+
+    // Изменения, ещё не записанные в MongoDB (null — удалить документ); доступ только под this
+    private final Map<String, byte[]> unwritten = new HashMap<>();
+    // Завершается записью checkpoint'а, который покроет всё, что воркеры обработали к этому моменту
+    private volatile CompletableFuture<Void> next = new CompletableFuture<>();
+
+    @PostConstruct
+    void restore() {
+        if (!enabled) {
+            return;
+        }
+        windowStore.enableChangeTracking();
+        if (shards > 0) {
+            // Состояние шарда восстанавливается, когда инстанс его захватывает
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            int restored = load(new Document(), deviceId -> true);
+            log.info("Restored window state of {} devices in {} ms", restored,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (DataAccessException | MongoException e) {
+            log.error("Failed to restore window state, starting with empty windows: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the window state of the shard's devices; called before this instance starts consuming the shard.
+     * Failures are logged and leave the shard's windows empty.
+     */
+    public void restoreShard(int shard) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        // Документы другой раскладки (или без неё) читает каждый шард и оставляет себе только свои устройства
+        Bson filter = Filters.or(
+                Filters.and(Filters.eq("shards", shards), Filters.eq("shard", shard)),
+                Filters.ne("shards", shards));
+        try {
+            int restored = load(filter, deviceId -> DeviceShards.shardOf(deviceId, shards) == shard);
+            log.info("Restored window state of {} devices of shard {} in {} ms", restored, shard,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (DataAccessException | MongoException e) {
+            log.error("Failed to restore window state of shard {}, starting with empty windows: {}", shard,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a future that completes with {@code processed} or, with ack-after-checkpoint, once the checkpoint
+     * taken after {@code processed} completed has been written.
+     */
+    public CompletableFuture<Void> whenCheckpointed(CompletableFuture<Void> processed) {
+        if (!enabled || !ackAfterCheckpoint) {
+            return processed;
+        }
+        return processed.thenCompose(v -> next);
+    }
+
+    /**
+     * Snapshots the devices changed since the previous checkpoint on their partition workers and writes them.
+     *
+     * @return {@code false} if the write failed and was carried over to the next checkpoint
+     */
+    @Scheduled(fixedDelayString = "${app.rules.checkpoint.interval-ms:1000}")
+    @SuppressWarnings("unchecked")
+    public synchronized boolean checkpoint() {
+        if (!enabled) {
+            return true;
+        }
+        long start = System.nanoTime();
+        // Подменяем future до снимка: всё, что воркеры успели обработать до этой точки, попадёт в снимок
+        CompletableFuture<Void> covering = next;
+        next = new CompletableFuture<>();
+        boolean written = false;
+        try {
+            Map<String, byte[]>[] snapshots = new Map[partitioner.partitions()];
+            try {
+                partitioner.submitToAll(partition -> snapshots[partition] = snapshot(partition)).join();
+            } finally {
+                // Изменения уже забраны из WindowStore — снимки успевших воркеров не теряем и при сбое остальных
+                for (Map<String, byte[]> snapshot : snapshots) {
+                    if (snapshot != null) {
+                        unwritten.putAll(snapshot);
+                    }
+                }
+            }
+            if (!unwritten.isEmpty()) {
+                write();
+                metrics.recordCheckpoint(unwritten.size(), System.nanoTime() - start);
+                unwritten.clear();
+            }
+            written = true;
+            return true;
+        } catch (DataAccessException | MongoException e) {
+            metrics.incrementCheckpointFailures();
+            log.warn("Window checkpoint of {} devices failed, carrying it over to the next one: {}",
+                    unwritten.size(), e.getMessage());
+            return false;
+        } catch (RuntimeException e) {
+            metrics.incrementCheckpointFailures();
+            log.error("Window checkpoint failed, carrying {} devices over to the next one", unwritten.size(), e);
+            return false;
+        } finally {
+            if (written) {
+                covering.complete(null);
+            } else {
+                // Сообщения, ждущие этого checkpoint'а, подтвердит следующий успешный
+                next.thenRun(() -> covering.complete(null));
+            }
+        }
+    }
+
+    /**
+     * Drops carried-over changes of devices accepted by {@code matching}, for devices now checkpointed by another
+     * instance.
+     */
+    public synchronized void discardUnwritten(Predicate<String> matching) {
+        unwritten.keySet().removeIf(matching);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            log.error("Final window checkpoint failed", e);
+        }
+    }
+
+    private Map<String, byte[]> snapshot(int partition) {
+        Map<String, byte[]> changes = new HashMap<>();
+        windowStore.drainChanges(partition, new WindowStore.ChangeSink() {
+            @Override
+            public void changed(String deviceId, long maxEventTs, Map<String, DeviceWindow> windows) {
+                byte[] state = WindowStateCodec.encode(maxEventTs, windows);
+                metrics.recordCheckpointState(state.length);
+                changes.put(deviceId, state);
+            }
+
+            @Override
+            public void removed(String deviceId) {
+                changes.put(deviceId, null);
+            }
+        });
+        return changes;
+    }
+
+    private void write() {
+        Date now = new Date();
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        List<WriteModel<Document>> models = new ArrayList<>(unwritten.size());
+        unwritten.forEach((deviceId, state) -> {
+            if (state == null) {
+                models.add(new DeleteOneModel<>(Filters.eq("_id", deviceId)));
+            } else {
+                Document document = new Document("_id", deviceId)
+                        .append("state", new Binary(state))
+                        .append("updatedAt", now);
+                if (shards > 0) {
+                    document.append("shards", shards).append("shard", DeviceShards.shardOf(deviceId, shards));
+                }
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", deviceId), document, upsert));
+            }
+        });
+        collection().bulkWrite(models, new BulkWriteOptions().ordered(false));
+    }
+
+    private int load(Bson filter, Predicate<String> accepted) {
+        AtomicInteger restored = new AtomicInteger();
+        long now = System.currentTimeMillis();
+        List<Checkpoint> batch = new ArrayList<>(RESTORE_BATCH);
+        CompletableFuture<Void> installing = CompletableFuture.completedFuture(null);
+        try (MongoCursor<Document> cursor = collection().find(filter).batchSize(RESTORE_BATCH).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                String deviceId = document.getString("_id");
+                if (!accepted.test(deviceId)) {
+                    continue;
+                }
+                batch.add(new Checkpoint(deviceId, document.get("state", Binary.class).getData()));
+                if (batch.size() == RESTORE_BATCH) {
+                    // Декодируем пакет на воркерах, пока читаем следующий; в памяти не больше двух пакетов
+                    installing.join();
+                    installing = install(batch, now, restored);
+                    batch = new ArrayList<>(RESTORE_BATCH);
+                }
+            }
+        }
+        installing.join();
+        install(batch, now, restored).join();
+        return restored.get();
+    }
+
+    private CompletableFuture<Void> install(List<Checkpoint> batch, long now, AtomicInteger restored) {
+        RuleSet rules = ruleRegistry.current();
+        return partitioner.submitAll(batch, Checkpoint::deviceId, checkpoint -> {
+            Map<String, DeviceWindow> windows = new HashMap<>(4);
+            long maxEventTs = Long.MIN_VALUE;
+            try {
+                maxEventTs = WindowStateCodec.decode(checkpoint.state(), key -> {
+                    CompiledRule rule = rules.windowRule(key);
+                    return rule == null ? null : rule.newWindow();
+                }, windows);
+            } catch (IOException e) {
+                log.warn("Dropping unreadable window state of device {}: {}", checkpoint.deviceId(), e.getMessage());
+                windows.clear();
+            }
+            // Устройство без окон помечается удалённым, и следующий checkpoint уберёт его документ
+            windowStore.restore(checkpoint.deviceId(), maxEventTs, windows);
+            if (!windows.isEmpty()) {
+                deviceTimers.onEnvelope(checkpoint.deviceId(), now);
+                restored.incrementAndGet();
+            }
+        });
+    }
+
+    private MongoCollection<Document> collection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+
+    private record Checkpoint(String deviceId, byte[] state) {
+    }
+}
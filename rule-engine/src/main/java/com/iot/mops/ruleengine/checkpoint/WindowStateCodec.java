@@ -0,0 +1,79 @@
+package com.iot.mops.ruleengine.checkpoint;
+
+import com.iot.mops.ruleengine.window.DeviceWindow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Binary form of one device's window state: a format version, the newest event timestamp and every window as its
+ * key followed by its length-prefixed contents. The length lets {@link #decode} skip windows of rules that were
+ * changed or removed since the checkpoint was written.
+ */
+public final class WindowStateCodec {
+
+    private static final int VERSION = 1;
+
+    private WindowStateCodec() {
+    }
+
+    public static byte[] encode(long maxEventTs, Map<String, DeviceWindow> windows) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 32 * windows.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            ByteArrayOutputStream windowBytes = new ByteArrayOutputStream(256);
+            DataOutputStream windowOut = new DataOutputStream(windowBytes);
+            out.writeByte(VERSION);
+            out.writeLong(maxEventTs);
+            out.writeInt(windows.size());
+            for (Map.Entry<String, DeviceWindow> entry : windows.entrySet()) {
+                windowBytes.reset();
+                entry.getValue().writeTo(windowOut);
+                windowOut.flush();
+                out.writeUTF(entry.getKey());
+                out.writeInt(windowBytes.size());
+                windowBytes.writeTo(out);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Запись в массив не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the windows of {@code state} into {@code windows}. {@code newWindow} creates an empty window for a key,
+     * or returns {@code null} if no current rule owns it, in which case the window is skipped.
+     *
+     * @return the device's newest event timestamp
+     */
+    public static long decode(byte[] state, Function<String, DeviceWindow> newWindow,
+                              Map<String, DeviceWindow> windows) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported window state version " + version);
+        }
+        long maxEventTs = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            int length = in.readInt();
+            DeviceWindow window = newWindow.apply(key);
+            if (window == null) {
+                in.skipNBytes(length);
+                continue;
+            }
+            window.readFrom(in);
+            windows.put(key, window);
+        }
+        return maxEventTs;
+    }
+}
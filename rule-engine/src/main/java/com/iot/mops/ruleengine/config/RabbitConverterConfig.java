@@ -1,9 +1,13 @@
 package com.iot.mops.ruleengine.config;
 
+import com.iot.mops.common.amqp.WireFormat;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,13 +15,14 @@ import org.springframework.context.annotation.Configuration;
 public class RabbitConverterConfig {
 
     @Bean
-    public Jackson2JsonMessageConverter jackson2JsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${app.rabbit.wire-format:json}") WireFormat wireFormat,
+                                             @Value("${app.payload.typed:false}") boolean typedPayload) {
+        return wireFormat.converter(typedPayload);
     }
 
     @Bean
     public RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory,
-                                         Jackson2JsonMessageConverter messageConverter) {
+                                         MessageConverter messageConverter) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
         rabbitTemplate.setMessageConverter(messageConverter);
         return rabbitTemplate;
@@ -26,10 +31,62 @@ public class RabbitConverterConfig {
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            Jackson2JsonMessageConverter messageConverter) {
+            MessageConverter messageConverter,
+            @Value("${app.rabbit.listener.prefetch:250}") int prefetch) {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
         factory.setMessageConverter(messageConverter);
+        // Один консьюмер на очередь: только так события устройства попадают на воркер в порядке очереди
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        factory.setPrefetchCount(prefetch);
+        // Листенер возвращает CompletableFuture — ack отправляется после обработки на воркере партиции
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+    /**
+     * Sharded mode: a direct container that starts with no queues; shard queues are added and removed at runtime
+     * as this instance claims and releases shards, each with its own consumer.
+     */
+    @Bean
+    public DirectRabbitListenerContainerFactory shardRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${app.rabbit.listener.prefetch:250}") int prefetch) {
+        DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setConsumersPerQueue(1);
+        factory.setPrefetchCount(prefetch);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+    /**
+     * Consumer-side batching: the container collects up to {@code batch.size} messages (or whatever arrived within
+     * {@code batch.receive-timeout-ms}) and acks them with a single multiple-ack once the listener returns.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            @Value("${app.rabbit.listener.prefetch:250}") int prefetch,
+            @Value("${app.rabbit.listener.batch.size:200}") int batchSize,
+            @Value("${app.rabbit.listener.batch.receive-timeout-ms:50}") long receiveTimeoutMs) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        // Один консьюмер на очередь: только так события устройства попадают на воркер в порядке очереди
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        // Держим у консьюмера минимум два пакета, чтобы следующий пакет копился, пока обрабатывается текущий
+        factory.setPrefetchCount(Math.max(prefetch, batchSize * 2));
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
         return factory;
     }
 }
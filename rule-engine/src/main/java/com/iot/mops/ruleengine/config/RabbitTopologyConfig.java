@@ -1,13 +1,20 @@
 package com.iot.mops.ruleengine.config;
 
+import com.iot.mops.common.amqp.DeviceShards;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class RabbitTopologyConfig {
 
@@ -27,4 +34,23 @@ public class RabbitTopologyConfig {
                                @Value("${app.rabbit.routing-key}") String routingKey) {
         return BindingBuilder.bind(ruleQueue).to(iotExchange).with(routingKey);
     }
+
+    /**
+     * Sharded topology: one queue per shard, bound with {@code shard.<n>}. Single active consumer makes sure only
+     * one instance receives a shard's messages even while leases change hands.
+     */
+    @Bean
+    public Declarables shardQueues(TopicExchange iotExchange,
+                                   @Value("${app.rabbit.queue}") String queueName,
+                                   @Value("${app.rabbit.shards.count:0}") int shards) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Queue queue = QueueBuilder.durable(DeviceShards.queueName(queueName, shard))
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(iotExchange).with(DeviceShards.routingKey(shard)));
+        }
+        return new Declarables(declarables);
+    }
 }
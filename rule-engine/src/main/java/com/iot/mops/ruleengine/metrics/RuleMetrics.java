@@ -1,21 +1,66 @@
 package com.iot.mops.ruleengine.metrics;
 
+import com.iot.mops.common.metrics.DeviceTopK;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 @Component
 public class RuleMetrics {
 
+    private static final long[] DEFAULT_SLO_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
     private final Counter messagesProcessed;
     private final Counter instantAlertsTriggered;
     private final Counter windowAlertsTriggered;
+    private final Counter silenceAlertsTriggered;
+    private final Counter timersExpired;
+    private final Counter lateReadings;
     private final Timer ruleEvaluationTime;
+    private final DistributionSummary candidateRules;
+    private final Counter alertsWritten;
+    private final Counter alertsSuppressed;
+    private final Timer alertFlushTime;
+    private final DistributionSummary listenerBatchSize;
+    private final Timer checkpointTime;
+    private final Counter checkpointDevices;
+    private final DistributionSummary checkpointBytes;
+    private final Counter checkpointFailures;
+    private final Map<String, Timer> stageLatency = new ConcurrentHashMap<>();
+    private final Map<String, Timer> endToEndLatency = new ConcurrentHashMap<>();
+    private final Duration[] slo;
+    private final Map<String, Counter> shardChanges = new ConcurrentHashMap<>();
+    private final Map<String, Timer> ruleTimers = new ConcurrentHashMap<>();
+    // По скетчу на тип правила; типов немного, поэтому карта ограничена
+    private final Map<String, DeviceTopK> alertsByDevice = new ConcurrentHashMap<>();
+    private final int topDevices;
     private final MeterRegistry registry;
 
     public RuleMetrics(MeterRegistry registry) {
+        this(registry, 20, DEFAULT_SLO_MS);
+    }
+
+    @Autowired
+    public RuleMetrics(MeterRegistry registry, @Value("${app.metrics.top-devices:20}") int topDevices,
+                       @Value("${app.tracing.slo-ms:5,10,25,50,100,250,500,1000,2500,5000}") long[] sloMs) {
         this.registry = registry;
+        this.topDevices = topDevices;
+        this.slo = Arrays.stream(sloMs).mapToObj(Duration::ofMillis).toArray(Duration[]::new);
 
         // Счётчик обработанных сообщений
         this.messagesProcessed = Counter.builder("rules.messages.processed")
@@ -34,10 +79,72 @@ public class RuleMetrics {
                 .description("Number of window alerts triggered")
                 .register(registry);
 
+        // Счётчик алертов о молчащих устройствах
+        this.silenceAlertsTriggered = Counter.builder("rules.alerts.triggered")
+                .tag("type", "silence")
+                .description("Number of device silence alerts triggered")
+                .register(registry);
+
+        // Сработавшие таймеры колеса (liveness и очистка окон)
+        this.timersExpired = Counter.builder("rules.timers.expired")
+                .description("Device timers expired on the timing wheels")
+                .register(registry);
+
+        // Показания, опоздавшие в уже закрытые event-time окна
+        this.lateReadings = Counter.builder("rules.windows.late.readings")
+                .description("Readings dropped because every event-time window they fall into had closed")
+                .register(registry);
+
         // Таймер оценки правил
         this.ruleEvaluationTime = Timer.builder("rules.evaluation.time")
                 .description("Time taken to evaluate rules")
                 .register(registry);
+
+        // Число правил-кандидатов на одно сообщение после индекса
+        this.candidateRules = DistributionSummary.builder("rules.candidates.per.event")
+                .description("Rules evaluated per message after index lookup")
+                .register(registry);
+
+        // Алерты, записанные в MongoDB
+        this.alertsWritten = Counter.builder("rules.alerts.written")
+                .description("Alerts written to MongoDB")
+                .register(registry);
+
+        // Алерты, подавленные в период cooldown
+        this.alertsSuppressed = Counter.builder("rules.alerts.suppressed")
+                .description("Triggers folded into an open alert during its cooldown")
+                .register(registry);
+
+        // Время пакетной записи алертов
+        this.alertFlushTime = Timer.builder("rules.alerts.flush.time")
+                .description("Time taken to bulk insert a batch of alerts")
+                .register(registry);
+
+        // Размер пакетов, полученных batch-листенером
+        this.listenerBatchSize = DistributionSummary.builder("rules.listener.batch.size")
+                .description("Messages per batch delivered to the batch listener")
+                .register(registry);
+
+        // Время одного checkpoint состояния окон: снимок на воркерах и запись в MongoDB
+        this.checkpointTime = Timer.builder("rules.checkpoint.time")
+                .description("Time taken to snapshot changed windows and write them to MongoDB")
+                .register(registry);
+
+        // Устройства, записанные или удалённые checkpoint'ом
+        this.checkpointDevices = Counter.builder("rules.checkpoint.devices")
+                .description("Devices whose window state was written or deleted by a checkpoint")
+                .register(registry);
+
+        // Размер сериализованного состояния одного устройства
+        this.checkpointBytes = DistributionSummary.builder("rules.checkpoint.state.size")
+                .baseUnit("bytes")
+                .description("Serialized window state per checkpointed device")
+                .register(registry);
+
+        // Неудачные записи checkpoint'а; их изменения уходят в следующий
+        this.checkpointFailures = Counter.builder("rules.checkpoint.failures")
+                .description("Checkpoints whose write failed and was carried over to the next one")
+                .register(registry);
     }
 
     public void incrementMessagesProcessed() {
@@ -52,6 +159,24 @@ public class RuleMetrics {
         windowAlertsTriggered.increment();
     }
 
+    public void incrementSilenceAlerts() {
+        silenceAlertsTriggered.increment();
+    }
+
+    public void incrementTimersExpired(int count) {
+        timersExpired.increment(count);
+    }
+
+    public void incrementLateReadings() {
+        lateReadings.increment();
+    }
+
+    public void bindTrackedDevices(Supplier<Number> tracked) {
+        io.micrometer.core.instrument.Gauge.builder("rules.devices.tracked", tracked)
+                .description("Devices with pending liveness or window timers")
+                .register(registry);
+    }
+
     public Timer.Sample startTimer() {
         return Timer.start(registry);
     }
@@ -60,12 +185,125 @@ public class RuleMetrics {
         sample.stop(ruleEvaluationTime);
     }
 
-    public void recordAlertForDevice(String deviceId, String ruleType) {
-        Counter.builder("rules.alerts.by_device")
-                .tag("deviceId", deviceId)
-                .tag("type", ruleType)
-                .register(registry)
+    public void recordCandidateRules(int count) {
+        candidateRules.record(count);
+    }
+
+    public void recordRuleEvaluation(String ruleId, long nanos) {
+        ruleTimers.computeIfAbsent(ruleId, id -> Timer.builder("rules.rule.evaluation.time")
+                        .tag("ruleId", id)
+                        .description("Sampled evaluation time of a single rule")
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops per-rule timers of rules that no longer exist.
+     */
+    public void retainRuleTimers(Set<String> ruleIds) {
+        ruleTimers.entrySet().removeIf(entry -> {
+            if (ruleIds.contains(entry.getKey())) {
+                return false;
+            }
+            registry.remove(entry.getValue());
+            return true;
+        });
+    }
+
+    public void recordListenerBatch(int size) {
+        listenerBatchSize.record(size);
+    }
+
+    public void incrementAlertsWritten(int count) {
+        alertsWritten.increment(count);
+    }
+
+    public void incrementAlertsSuppressed() {
+        alertsSuppressed.increment();
+    }
+
+    public void stopAlertFlushTimer(Timer.Sample sample) {
+        sample.stop(alertFlushTime);
+    }
+
+    public void bindAlertQueue(Collection<?> queue) {
+        registry.gaugeCollectionSize("rules.alerts.queue.depth", io.micrometer.core.instrument.Tags.empty(), queue);
+    }
+
+    public void bindPartitionBacklog(Supplier<Number> backlog) {
+        io.micrometer.core.instrument.Gauge.builder("rules.partition.backlog", backlog)
+                .description("Envelopes queued on partition workers awaiting evaluation")
+                .register(registry);
+    }
+
+    public void recordCheckpoint(int devices, long nanos) {
+        checkpointDevices.increment(devices);
+        checkpointTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCheckpointState(int bytes) {
+        checkpointBytes.record(bytes);
+    }
+
+    public void incrementCheckpointFailures() {
+        checkpointFailures.increment();
+    }
+
+    /**
+     * @param stage {@code publish} (ingest to broker), {@code queue} (broker to listener), {@code evaluation}
+     *              (listener to evaluated, including the partition backlog) or {@code alert_write}
+     */
+    public void recordStage(String stage, long millis) {
+        stageLatency.computeIfAbsent(stage, s -> latencyTimer("rules.pipeline.stage.latency", "stage", s,
+                        "Time an event spends in one stage between ingest and alert persistence"))
+                .record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param until {@code evaluated} or {@code alert_written}
+     */
+    public void recordEndToEnd(String until, long millis) {
+        endToEndLatency.computeIfAbsent(until, u -> latencyTimer("rules.pipeline.end_to_end.latency", "until", u,
+                        "Time from ingest in the controller until the event was evaluated or its alert written"))
+                .record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    // Перцентили считаются на инстансе, SLO-бакеты позволяют агрегировать их в Prometheus по всем инстансам
+    private Timer latencyTimer(String name, String tag, String value, String description) {
+        return Timer.builder(name)
+                .tag(tag, value)
+                .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                .serviceLevelObjectives(slo)
+                .description(description)
+                .register(registry);
+    }
+
+    public void bindOwnedShards(Supplier<Number> owned) {
+        io.micrometer.core.instrument.Gauge.builder("rules.shards.owned", owned)
+                .description("Shard queues this instance holds leases for and consumes")
+                .register(registry);
+    }
+
+    /**
+     * @param action {@code claimed}, {@code released} or {@code lost} (lease expired before it was renewed)
+     */
+    public void incrementShardChanges(String action) {
+        shardChanges.computeIfAbsent(action, a -> Counter.builder("rules.shards.changes")
+                        .tag("action", a)
+                        .description("Shard leases claimed, released or lost by this instance")
+                        .register(registry))
                 .increment();
     }
-}
 
+    public void recordAlertForDevice(String deviceId, String ruleType) {
+        alertsByDevice.computeIfAbsent(ruleType, type -> new DeviceTopK(registry, "rules.alerts.by_device",
+                        "Alerts per device over the last publish interval, top devices only",
+                        Tags.of("type", type), topDevices))
+                .record(deviceId);
+    }
+
+    @Scheduled(fixedDelayString = "${app.metrics.top-devices-interval-ms:60000}")
+    public void publishTopDevices() {
+        alertsByDevice.values().forEach(DeviceTopK::publish);
+    }
+}
@@ -0,0 +1,122 @@
+package com.iot.mops.ruleengine.partition;
+
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Shards devices by hash onto N single-threaded workers. Everything touching a device's state runs on its
+ * partition's worker, so per-device state needs no locking and a device's events are processed in the order
+ * they were submitted. Queues are unbounded on purpose: in-flight work is already capped by the listener prefetch.
+ * <p>
+ * Submission order is the queue order only while each queue has a single consumer thread; with several consumers
+ * two events of a device may be submitted in either order. The listener containers are therefore fixed at one
+ * consumer per queue, and parallelism comes from the workers.
+ */
+@Component
+@Slf4j
+public class DevicePartitioner {
+
+    private final int partitions;
+    private final ThreadPoolExecutor[] workers;
+
+    public DevicePartitioner(@Value("${app.rules.partitions:0}") int partitions, RuleMetrics metrics) {
+        this.partitions = partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+        this.workers = new ThreadPoolExecutor[this.partitions];
+        for (int i = 0; i < this.partitions; i++) {
+            String name = "rule-partition-" + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        metrics.bindPartitionBacklog(this::backlog);
+        log.info("Rule evaluation partitioned over {} workers", this.partitions);
+    }
+
+    public int partitions() {
+        return partitions;
+    }
+
+    public int partitionOf(String deviceId) {
+        int h = deviceId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    /**
+     * Runs {@code task} on the worker owning {@code deviceId}.
+     */
+    public CompletableFuture<Void> submit(String deviceId, Runnable task) {
+        return CompletableFuture.runAsync(task, workers[partitionOf(deviceId)]);
+    }
+
+    /**
+     * Runs {@code task} for every item on the worker owning its device, as one task per partition. Items of a
+     * partition are processed in list order.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Void> submitAll(List<T> items, Function<T, String> deviceId, Consumer<T> task) {
+        List<T>[] groups = new List[partitions];
+        for (T item : items) {
+            int partition = partitionOf(deviceId.apply(item));
+            if (groups[partition] == null) {
+                groups[partition] = new ArrayList<>();
+            }
+            groups[partition].add(item);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            List<T> group = groups[i];
+            if (group != null) {
+                futures.add(CompletableFuture.runAsync(() -> group.forEach(task), workers[i]));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Runs {@code task} once on every worker with that worker's partition number.
+     */
+    public CompletableFuture<Void> submitToAll(IntConsumer task) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[partitions];
+        for (int i = 0; i < partitions; i++) {
+            int partition = i;
+            futures[i] = CompletableFuture.runAsync(() -> task.accept(partition), workers[i]);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    public int backlog() {
+        int total = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            total += worker.getQueue().size();
+        }
+        return total;
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        for (ExecutorService worker : workers) {
+            if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+                worker.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.common.dto.TelemetryPayload;
+import com.iot.mops.ruleengine.window.DeviceWindow;
+import com.iot.mops.ruleengine.window.WindowStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A rule bound at load time to its field path, comparison and window. Evaluation touches only pre-resolved
+ * state and does not allocate, except when a device's window is created.
+ */
+public abstract class CompiledRule {
+
+    private final String id;
+    private final String kind;
+    private final String condition;
+    private final String field;
+    private final String[] path;
+    private final List<String> devicePatterns;
+    private final Predicate<String> devices;
+
+    protected CompiledRule(String id, String kind, String condition, String field, List<String> devicePatterns,
+                           Predicate<String> devices) {
+        this.id = id;
+        this.kind = kind;
+        this.condition = condition;
+        this.field = field;
+        this.path = field.split("\\.");
+        this.devicePatterns = devicePatterns;
+        this.devices = devices;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Alert kind, {@code instant} or {@code window}.
+     */
+    public String kind() {
+        return kind;
+    }
+
+    /**
+     * Human-readable condition stored on alerts, e.g. {@code payload.a > 5}.
+     */
+    public String condition() {
+        return condition;
+    }
+
+    /**
+     * Normalised payload field path without the {@code payload.} prefix.
+     */
+    public String field() {
+        return field;
+    }
+
+    /**
+     * Top-level payload key the rule reads; instant rules are indexed by it.
+     */
+    public String rootField() {
+        return path[0];
+    }
+
+    /**
+     * Device id patterns the rule was defined with; empty for rules that apply to every device.
+     */
+    public List<String> devicePatterns() {
+        return devicePatterns;
+    }
+
+    public boolean appliesTo(String deviceId) {
+        return devices == null || devices.test(deviceId);
+    }
+
+    /**
+     * Age after which readings leave this rule's windows, or 0 for rules without windows.
+     */
+    public long maxAgeMillis() {
+        return 0;
+    }
+
+    /**
+     * Key of this rule's per-device window in {@link WindowStore}, or {@code null} for rules without windows.
+     */
+    public String windowKey() {
+        return null;
+    }
+
+    /**
+     * Creates an empty per-device window for this rule; only called for rules with a {@link #windowKey()}.
+     */
+    public DeviceWindow newWindow() {
+        throw new UnsupportedOperationException("Rule " + id + " has no window");
+    }
+
+    /**
+     * Number of readings the alert covers.
+     */
+    public abstract int alertWindowSize();
+
+    /**
+     * Feeds one reading to the rule and reports whether it fires.
+     */
+    public abstract boolean evaluate(String deviceId, Map<String, Object> payload, long tsMillis, long nowMillis,
+                                     WindowStore windows);
+
+    protected double extract(Map<String, Object> payload) {
+        if (path.length == 1 && payload instanceof TelemetryPayload telemetry) {
+            return telemetry.getDouble(field);
+        }
+        Object value;
+        if (path.length == 1) {
+            value = payload.get(field);
+        } else {
+            value = payload;
+            for (String segment : path) {
+                if (!(value instanceof Map<?, ?> map)) {
+                    return Double.NaN;
+                }
+                value = map.get(segment);
+            }
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        return Double.NaN;
+    }
+}
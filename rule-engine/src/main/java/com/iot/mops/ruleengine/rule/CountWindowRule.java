@@ -0,0 +1,76 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.ruleengine.window.MetricWindow;
+import com.iot.mops.ruleengine.window.WindowAggregates;
+import com.iot.mops.ruleengine.window.WindowStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fires when the device's last {@code size} readings satisfy the aggregate condition. Readings more than
+ * {@code maxAgeMillis} older than the device's newest event timestamp leave the window, so a replayed backlog is
+ * judged on its own timestamps rather than against the wall clock.
+ */
+final class CountWindowRule extends CompiledRule {
+
+    private final String windowKey;
+    private final Supplier<MetricWindow> windowFactory = this::newWindow;
+    private final DoublePredicate predicate;
+    private final Predicate<WindowAggregates> aggregate;
+    private final int size;
+    private final long maxAgeMillis;
+
+    CountWindowRule(String id, String windowKey, String condition, String field, List<String> devicePatterns,
+                    Predicate<String> devices, DoublePredicate predicate, Predicate<WindowAggregates> aggregate,
+                    int size, long maxAgeMillis) {
+        super(id, "window", condition, field, devicePatterns, devices);
+        this.windowKey = windowKey;
+        this.predicate = predicate;
+        this.aggregate = aggregate;
+        this.size = size;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    @Override
+    public long maxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    @Override
+    public String windowKey() {
+        return windowKey;
+    }
+
+    @Override
+    public MetricWindow newWindow() {
+        return new MetricWindow(size, predicate);
+    }
+
+    @Override
+    public int alertWindowSize() {
+        return size;
+    }
+
+    @Override
+    public boolean evaluate(String deviceId, Map<String, Object> payload, long tsMillis, long nowMillis,
+                            WindowStore windows) {
+        double value = extract(payload);
+        MetricWindow window;
+        if (Double.isNaN(value)) {
+            // Отсутствующее значение прерывает серию, но не заводит окно для устройств без этого поля
+            window = windows.find(deviceId, windowKey);
+            if (window == null) {
+                return false;
+            }
+        } else {
+            window = windows.window(deviceId, windowKey, windowFactory);
+        }
+        window.add(tsMillis, value);
+        window.evictOlderThan(windows.observe(deviceId, tsMillis) - maxAgeMillis);
+        return window.isFull() && aggregate.test(window);
+    }
+}
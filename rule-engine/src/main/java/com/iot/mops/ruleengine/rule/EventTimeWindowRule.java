@@ -0,0 +1,74 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.ruleengine.window.EventTimeWindows;
+import com.iot.mops.ruleengine.window.WindowStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Tumbling, sliding or session window over event time. Each window is judged once, when the device's watermark
+ * (newest event timestamp minus {@code latenessMillis}) passes its end; the rule fires if any window closed by the
+ * current reading satisfied the aggregate condition.
+ */
+final class EventTimeWindowRule extends CompiledRule {
+
+    private final String windowKey;
+    private final Supplier<EventTimeWindows> windowFactory = this::newWindow;
+    private final Supplier<EventTimeWindows> factory;
+    private final int minCount;
+    private final long latenessMillis;
+    private final long maxAgeMillis;
+
+    EventTimeWindowRule(String id, String windowKey, String condition, String field, List<String> devicePatterns,
+                        Predicate<String> devices, Supplier<EventTimeWindows> factory, int minCount,
+                        long latenessMillis, long maxAgeMillis) {
+        super(id, "window", condition, field, devicePatterns, devices);
+        this.windowKey = windowKey;
+        this.factory = factory;
+        this.minCount = minCount;
+        this.latenessMillis = latenessMillis;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    @Override
+    public long maxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    @Override
+    public String windowKey() {
+        return windowKey;
+    }
+
+    @Override
+    public EventTimeWindows newWindow() {
+        return factory.get();
+    }
+
+    @Override
+    public int alertWindowSize() {
+        return minCount;
+    }
+
+    @Override
+    public boolean evaluate(String deviceId, Map<String, Object> payload, long tsMillis, long nowMillis,
+                            WindowStore windows) {
+        double value = extract(payload);
+        EventTimeWindows window = Double.isNaN(value)
+                ? windows.find(deviceId, windowKey)
+                : windows.window(deviceId, windowKey, windowFactory);
+        if (window == null) {
+            return false;
+        }
+        long watermark = windows.observe(deviceId, tsMillis) - latenessMillis;
+        // Сначала закрываем окна, которые прошёл watermark, — текущее показание в них уже не попадает
+        boolean fired = window.closeUpTo(watermark);
+        if (!Double.isNaN(value) && !window.add(tsMillis, value, watermark)) {
+            windows.recordLateReading();
+        }
+        return fired;
+    }
+}
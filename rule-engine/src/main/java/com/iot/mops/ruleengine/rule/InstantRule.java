@@ -0,0 +1,30 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.ruleengine.window.WindowStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+final class InstantRule extends CompiledRule {
+
+    private final DoublePredicate predicate;
+
+    InstantRule(String id, String condition, String field, List<String> devicePatterns, Predicate<String> devices,
+                DoublePredicate predicate) {
+        super(id, "instant", condition, field, devicePatterns, devices);
+        this.predicate = predicate;
+    }
+
+    @Override
+    public int alertWindowSize() {
+        return 1;
+    }
+
+    @Override
+    public boolean evaluate(String deviceId, Map<String, Object> payload, long tsMillis, long nowMillis,
+                            WindowStore windows) {
+        return predicate.test(extract(payload));
+    }
+}
@@ -0,0 +1,192 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.ruleengine.window.EventTimeWindows;
+import com.iot.mops.ruleengine.window.WindowAggregates;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Turns {@link RuleDefinition}s into {@link CompiledRule}s. Everything that can be decided from the definition
+ * (field path, comparison, aggregation, device filter) is resolved here once.
+ */
+public class RuleCompiler {
+
+    private static final String PAYLOAD_PREFIX = "payload.";
+    // Предел открытых окон на устройство и правило — держит память ограниченной при любых параметрах
+    private static final int MAX_OPEN_WINDOWS = 256;
+
+    private final int defaultWindowSize;
+    private final long defaultMaxAgeSec;
+
+    public RuleCompiler(int defaultWindowSize, long defaultMaxAgeSec) {
+        this.defaultWindowSize = defaultWindowSize;
+        this.defaultMaxAgeSec = defaultMaxAgeSec;
+    }
+
+    public CompiledRule compile(RuleDefinition definition) {
+        String id = definition.getId();
+        if (id == null || id.isBlank()) {
+            throw new IllegalArgumentException("Rule without id: " + definition);
+        }
+        if (definition.getField() == null || definition.getField().isBlank()) {
+            throw new IllegalArgumentException("Rule " + id + " has no field");
+        }
+        if (definition.getOperator() == null) {
+            throw new IllegalArgumentException("Rule " + id + " has no operator");
+        }
+
+        String field = definition.getField().startsWith(PAYLOAD_PREFIX)
+                ? definition.getField().substring(PAYLOAD_PREFIX.length())
+                : definition.getField();
+        List<String> devicePatterns = definition.getDevices() == null ? List.of() : List.copyOf(definition.getDevices());
+        Predicate<String> devices = devicePredicate(devicePatterns);
+        DoublePredicate predicate = predicate(definition.getOperator(), definition.getThreshold());
+        String comparison = symbol(definition.getOperator()) + " " + format(definition.getThreshold());
+
+        RuleDefinition.WindowType window = definition.getWindow() == null
+                ? RuleDefinition.WindowType.INSTANT
+                : definition.getWindow();
+        return switch (window) {
+            case INSTANT -> new InstantRule(id, PAYLOAD_PREFIX + field + " " + comparison, field, devicePatterns,
+                    devices, predicate);
+            case COUNT -> {
+                int size = definition.getWindowSize() > 0 ? definition.getWindowSize() : defaultWindowSize;
+                long maxAgeSec = definition.getMaxAgeSec() > 0 ? definition.getMaxAgeSec() : defaultMaxAgeSec;
+                RuleDefinition.Aggregation aggregation = aggregation(definition);
+                yield new CountWindowRule(id, windowKey(definition), condition(aggregation, field, comparison), field,
+                        devicePatterns, devices, predicate, aggregate(aggregation, predicate), size,
+                        TimeUnit.SECONDS.toMillis(maxAgeSec));
+            }
+            case TUMBLING, SLIDING, SESSION -> eventTimeRule(definition, window, id, field, comparison,
+                    devicePatterns, devices, predicate);
+        };
+    }
+
+    private static CompiledRule eventTimeRule(RuleDefinition definition, RuleDefinition.WindowType window, String id,
+                                              String field, String comparison, List<String> devicePatterns,
+                                              Predicate<String> devices, DoublePredicate predicate) {
+        long lateness = TimeUnit.SECONDS.toMillis(definition.getAllowedLatenessSec());
+        if (lateness < 0) {
+            throw new IllegalArgumentException("Rule " + id + " has negative allowed lateness");
+        }
+        int minCount = Math.max(1, definition.getWindowSize());
+        RuleDefinition.Aggregation aggregation = aggregation(definition);
+        Predicate<WindowAggregates> aggregate = aggregate(aggregation, predicate);
+
+        long size;
+        long slide;
+        String geometry;
+        if (window == RuleDefinition.WindowType.SESSION) {
+            size = TimeUnit.SECONDS.toMillis(definition.getGapSec());
+            slide = size;
+            geometry = "session gap " + definition.getGapSec() + "s";
+        } else {
+            size = TimeUnit.SECONDS.toMillis(definition.getWindowSec());
+            slide = window == RuleDefinition.WindowType.SLIDING
+                    ? TimeUnit.SECONDS.toMillis(definition.getSlideSec())
+                    : size;
+            geometry = window == RuleDefinition.WindowType.SLIDING
+                    ? "sliding " + definition.getWindowSec() + "s every " + definition.getSlideSec() + "s"
+                    : "tumbling " + definition.getWindowSec() + "s";
+        }
+        if (size <= 0 || slide <= 0 || slide > size) {
+            throw new IllegalArgumentException("Rule " + id + " needs a positive "
+                    + (window == RuleDefinition.WindowType.SESSION ? "gapSec" : "windowSec and 0 < slideSec <= windowSec"));
+        }
+        if (EventTimeWindows.maxOpenWindows(size, slide, lateness) > MAX_OPEN_WINDOWS) {
+            throw new IllegalArgumentException("Rule " + id + " would keep more than " + MAX_OPEN_WINDOWS
+                    + " windows open per device; increase the slide or reduce the allowed lateness");
+        }
+
+        Supplier<EventTimeWindows> factory = window == RuleDefinition.WindowType.SESSION
+                ? () -> EventTimeWindows.session(size, lateness, predicate, aggregate, minCount)
+                : () -> EventTimeWindows.sliding(size, slide, lateness, predicate, aggregate, minCount);
+        String condition = condition(aggregation, field, comparison) + " over " + geometry;
+        // Устройство без данных дольше окна и допуска опоздания больше не закроет свои окна — их можно удалить
+        return new EventTimeWindowRule(id, windowKey(definition), condition, field, devicePatterns, devices, factory,
+                minCount, lateness, size + lateness);
+    }
+
+    private static RuleDefinition.Aggregation aggregation(RuleDefinition definition) {
+        return definition.getAggregation() == null ? RuleDefinition.Aggregation.ALL : definition.getAggregation();
+    }
+
+    private static String condition(RuleDefinition.Aggregation aggregation, String field, String comparison) {
+        return switch (aggregation) {
+            case ALL -> PAYLOAD_PREFIX + field + " " + comparison;
+            default -> aggregation.name().toLowerCase() + "(" + PAYLOAD_PREFIX + field + ") " + comparison;
+        };
+    }
+
+    // Ключ окна меняется вместе с определением, чтобы изменённое правило не унаследовало старое окно.
+    // Хэш берём от toString: hashCode enum-полей зависит от JVM, а ключ должен переживать рестарт (checkpoint)
+    private static String windowKey(RuleDefinition definition) {
+        return definition.getId() + "@" + Integer.toHexString(definition.toString().hashCode());
+    }
+
+    private static DoublePredicate predicate(RuleDefinition.Operator operator, double threshold) {
+        return switch (operator) {
+            case GT -> v -> v > threshold;
+            case GTE -> v -> v >= threshold;
+            case LT -> v -> v < threshold;
+            case LTE -> v -> v <= threshold;
+            case EQ -> v -> v == threshold;
+            case NEQ -> v -> !Double.isNaN(v) && v != threshold;
+        };
+    }
+
+    private static Predicate<WindowAggregates> aggregate(RuleDefinition.Aggregation aggregation, DoublePredicate predicate) {
+        return switch (aggregation) {
+            case ALL -> WindowAggregates::allMatch;
+            case ANY -> w -> w.matchCount() > 0;
+            case AVG -> w -> predicate.test(w.avg());
+            case MIN -> w -> predicate.test(w.min());
+            case MAX -> w -> predicate.test(w.max());
+            case SUM -> w -> w.validCount() > 0 && predicate.test(w.sum());
+        };
+    }
+
+    static Predicate<String> devicePredicate(List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return null;
+        }
+        Predicate<String> result = null;
+        for (String pattern : patterns) {
+            Predicate<String> single;
+            int star = pattern.indexOf('*');
+            if (star < 0) {
+                single = pattern::equals;
+            } else if (star == pattern.length() - 1) {
+                String prefix = pattern.substring(0, star);
+                single = deviceId -> deviceId.startsWith(prefix);
+            } else {
+                Pattern regex = Pattern.compile(("\\Q" + pattern + "\\E").replace("*", "\\E.*\\Q"));
+                single = deviceId -> regex.matcher(deviceId).matches();
+            }
+            result = result == null ? single : result.or(single);
+        }
+        return result;
+    }
+
+    private static String symbol(RuleDefinition.Operator operator) {
+        return switch (operator) {
+            case GT -> ">";
+            case GTE -> ">=";
+            case LT -> "<";
+            case LTE -> "<=";
+            case EQ -> "==";
+            case NEQ -> "!=";
+        };
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value)
+                ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+}
@@ -0,0 +1,75 @@
+package com.iot.mops.ruleengine.rule;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declarative rule as written in {@code app.rules.definitions} or stored in the {@code rules} collection.
+ * Compiled once by {@link RuleCompiler}; never consulted on the evaluation path.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "rules")
+public class RuleDefinition {
+
+    public enum Operator {
+        GT, GTE, LT, LTE, EQ, NEQ
+    }
+
+    public enum WindowType {
+        /** Every reading is checked on its own. */
+        INSTANT,
+        /** The last {@code windowSize} readings of the device, no older than {@code maxAgeSec}. */
+        COUNT,
+        /** Consecutive event-time windows of {@code windowSec}, aligned to the epoch. */
+        TUMBLING,
+        /** Event-time windows of {@code windowSec} starting every {@code slideSec}. */
+        SLIDING,
+        /** Event-time bursts of readings separated by less than {@code gapSec}. */
+        SESSION
+    }
+
+    public enum Aggregation {
+        /** Every reading in the window satisfies the condition. */
+        ALL,
+        /** At least one reading in the window satisfies the condition. */
+        ANY,
+        AVG,
+        MIN,
+        MAX,
+        SUM
+    }
+
+    @Id
+    private String id;
+    @Builder.Default
+    private boolean enabled = true;
+    /** Device id patterns; a trailing {@code *} matches a prefix. Empty means every device. */
+    @Builder.Default
+    private List<String> devices = new ArrayList<>();
+    /** Payload field path, dot-separated for nested maps; a leading {@code payload.} is optional. */
+    private String field;
+    private Operator operator;
+    private double threshold;
+    @Builder.Default
+    private WindowType window = WindowType.INSTANT;
+    /** COUNT: readings in the window. Event-time windows: fewest readings a window needs to be judged (default 1). */
+    private int windowSize;
+    private long maxAgeSec;
+    private long windowSec;
+    private long slideSec;
+    private long gapSec;
+    /** Event-time windows: how far behind the device's newest reading a reading may arrive and still count. */
+    private long allowedLatenessSec;
+    @Builder.Default
+    private Aggregation aggregation = Aggregation.ALL;
+}
@@ -0,0 +1,105 @@
+package com.iot.mops.ruleengine.rule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Looks up the rules that apply to an event's device. Rules without device patterns apply to every device, rules
+ * listing exact device ids are keyed by device, and rules with wildcard patterns form groups that share one device
+ * matcher. Within each scope, instant rules are further keyed by top-level payload field and skipped for events
+ * that do not carry it, as a missing value can never fire them; window rules see every event of their devices,
+ * since a missing value breaks a COUNT series and any reading advances event time.
+ */
+final class RuleIndex {
+
+    private static final CompiledRule[] NONE = new CompiledRule[0];
+
+    private final Scope global;
+    private final Map<String, Scope> byDevice;
+    private final DeviceGroup[] groups;
+
+    RuleIndex(List<CompiledRule> rules) {
+        List<CompiledRule> globalRules = new ArrayList<>();
+        Map<String, List<CompiledRule>> deviceRules = new HashMap<>();
+        Map<List<String>, List<CompiledRule>> groupRules = new LinkedHashMap<>();
+
+        for (CompiledRule rule : rules) {
+            List<String> patterns = rule.devicePatterns();
+            if (patterns.isEmpty()) {
+                globalRules.add(rule);
+            } else if (patterns.stream().noneMatch(p -> p.indexOf('*') >= 0)) {
+                for (String deviceId : new LinkedHashSet<>(patterns)) {
+                    deviceRules.computeIfAbsent(deviceId, k -> new ArrayList<>()).add(rule);
+                }
+            } else {
+                groupRules.computeIfAbsent(patterns, k -> new ArrayList<>()).add(rule);
+            }
+        }
+
+        this.global = Scope.of(globalRules);
+        this.byDevice = new HashMap<>();
+        deviceRules.forEach((deviceId, scoped) -> byDevice.put(deviceId, Scope.of(scoped)));
+        this.groups = groupRules.entrySet().stream()
+                .map(e -> new DeviceGroup(RuleCompiler.devicePredicate(e.getKey()), Scope.of(e.getValue())))
+                .toArray(DeviceGroup[]::new);
+    }
+
+    /**
+     * Appends to {@code out} every rule that applies to {@code deviceId}, except instant rules reading a field
+     * absent from {@code payload}.
+     */
+    void collect(String deviceId, Map<String, Object> payload, List<CompiledRule> out) {
+        global.collect(payload, out);
+        Scope device = byDevice.get(deviceId);
+        if (device != null) {
+            device.collect(payload, out);
+        }
+        for (DeviceGroup group : groups) {
+            if (group.matcher.test(deviceId)) {
+                group.scope.collect(payload, out);
+            }
+        }
+    }
+
+    private static void addAll(List<CompiledRule> out, CompiledRule[] rules) {
+        for (CompiledRule rule : rules) {
+            out.add(rule);
+        }
+    }
+
+    private record Scope(CompiledRule[] windowed, Map<String, CompiledRule[]> instantByField) {
+
+        static Scope of(List<CompiledRule> rules) {
+            List<CompiledRule> windowed = new ArrayList<>();
+            Map<String, List<CompiledRule>> byField = new HashMap<>();
+            for (CompiledRule rule : rules) {
+                if (rule.windowKey() != null) {
+                    windowed.add(rule);
+                } else {
+                    byField.computeIfAbsent(rule.rootField(), k -> new ArrayList<>()).add(rule);
+                }
+            }
+            Map<String, CompiledRule[]> frozen = new HashMap<>();
+            byField.forEach((field, list) -> frozen.put(field, list.toArray(NONE)));
+            return new Scope(windowed.toArray(NONE), frozen);
+        }
+
+        void collect(Map<String, Object> payload, List<CompiledRule> out) {
+            addAll(out, windowed);
+            if (instantByField.isEmpty()) {
+                return;
+            }
+            for (String key : payload.keySet()) {
+                addAll(out, instantByField.getOrDefault(key, NONE));
+            }
+        }
+    }
+
+    private record DeviceGroup(Predicate<String> matcher, Scope scope) {
+    }
+}
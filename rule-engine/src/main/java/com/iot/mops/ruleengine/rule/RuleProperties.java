@@ -0,0 +1,21 @@
+package com.iot.mops.ruleengine.rule;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rules")
+public class RuleProperties {
+
+    public enum Source {
+        CONFIG, MONGO, BOTH
+    }
+
+    private Source source = Source.CONFIG;
+    private List<RuleDefinition> definitions = new ArrayList<>();
+}
@@ -0,0 +1,103 @@
+package com.iot.mops.ruleengine.rule;
+
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.store.RuleDefinitionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Loads rule definitions from configuration and/or Mongo and holds the current compiled {@link RuleSet}.
+ * A reload compiles a complete new set and swaps it in atomically; a set that fails to compile is discarded.
+ * Rule ids must be unique across both sources: two rules with one id would share its windows and feed them twice.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RuleRegistry {
+
+    private final RuleProperties properties;
+    private final RuleDefinitionRepository repository;
+    private final RuleMetrics metrics;
+    private final DevicePartitioner partitioner;
+
+    @Value("${app.rules.window-size:10}")
+    private int defaultWindowSize;
+
+    @Value("${app.rules.max-window-age-sec:60}")
+    private long defaultMaxAgeSec;
+
+    private volatile RuleSet ruleSet = new RuleSet(List.of());
+
+    @PostConstruct
+    void init() {
+        // При старте некорректное правило должно останавливать сервис
+        ruleSet = compile();
+        log.info("Loaded {} rules from {}", ruleSet.rules().size(), properties.getSource());
+    }
+
+    /**
+     * Recompiles all rules and swaps them in. Returns the new set, or the current one if compilation failed.
+     */
+    public synchronized RuleSet reload() {
+        try {
+            ruleSet = compile();
+            log.info("Reloaded {} rules from {}", ruleSet.rules().size(), properties.getSource());
+        } catch (RuntimeException e) {
+            log.error("Rule reload failed, keeping {} current rules", ruleSet.rules().size(), e);
+            return ruleSet;
+        }
+        Set<String> ruleIds = ruleSet.rules().stream().map(CompiledRule::id).collect(Collectors.toSet());
+        // Снимаем таймеры, когда каждый воркер закончил начатую по старому набору работу, иначе он пересоздаст их
+        partitioner.submitToAll(partition -> { }).thenRun(() -> metrics.retainRuleTimers(ruleIds));
+        return ruleSet;
+    }
+
+    @Scheduled(fixedDelayString = "${app.rules.reload-interval-ms:30000}", initialDelayString = "${app.rules.reload-interval-ms:30000}")
+    public void reloadFromMongo() {
+        if (properties.getSource() != RuleProperties.Source.CONFIG) {
+            reload();
+        }
+    }
+
+    public RuleSet current() {
+        return ruleSet;
+    }
+
+    private RuleSet compile() {
+        RuleCompiler compiler = new RuleCompiler(defaultWindowSize, defaultMaxAgeSec);
+        List<CompiledRule> compiled = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (RuleDefinition definition : loadDefinitions()) {
+            // Отключённые тоже: иначе включение второй копии позже неожиданно сломало бы перезагрузку
+            if (definition.getId() != null && !ids.add(definition.getId())) {
+                throw new IllegalArgumentException("Duplicate rule id " + definition.getId());
+            }
+            if (definition.isEnabled()) {
+                compiled.add(compiler.compile(definition));
+            }
+        }
+        return new RuleSet(compiled);
+    }
+
+    private List<RuleDefinition> loadDefinitions() {
+        List<RuleDefinition> definitions = new ArrayList<>();
+        if (properties.getSource() != RuleProperties.Source.MONGO) {
+            definitions.addAll(properties.getDefinitions());
+        }
+        if (properties.getSource() != RuleProperties.Source.CONFIG) {
+            definitions.addAll(repository.findAll());
+        }
+        return definitions;
+    }
+}
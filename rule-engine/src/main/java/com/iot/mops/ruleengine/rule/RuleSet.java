@@ -0,0 +1,53 @@
+package com.iot.mops.ruleengine.rule;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the compiled rules and their index; replaced as a whole on reload.
+ */
+public final class RuleSet {
+
+    private final List<CompiledRule> rules;
+    private final RuleIndex index;
+    private final long maxWindowAgeMillis;
+    private final Map<String, CompiledRule> windowRules = new HashMap<>();
+
+    public RuleSet(List<CompiledRule> rules) {
+        this.rules = List.copyOf(rules);
+        this.index = new RuleIndex(this.rules);
+        this.maxWindowAgeMillis = rules.stream().mapToLong(CompiledRule::maxAgeMillis).max().orElse(0);
+        for (CompiledRule rule : this.rules) {
+            if (rule.windowKey() != null) {
+                windowRules.put(rule.windowKey(), rule);
+            }
+        }
+    }
+
+    public List<CompiledRule> rules() {
+        return rules;
+    }
+
+    /**
+     * Appends to {@code out} the rules to evaluate for the event: every rule that applies to the device, except
+     * instant rules reading a field the payload does not carry.
+     */
+    public void collectCandidates(String deviceId, Map<String, Object> payload, List<CompiledRule> out) {
+        index.collect(deviceId, payload, out);
+    }
+
+    /**
+     * The rule owning windows stored under {@code windowKey}, or {@code null} if no current rule does.
+     */
+    public CompiledRule windowRule(String windowKey) {
+        return windowRules.get(windowKey);
+    }
+
+    /**
+     * The longest window age of any rule; readings older than this can be dropped from every window.
+     */
+    public long maxWindowAgeMillis() {
+        return maxWindowAgeMillis;
+    }
+}
@@ -1,105 +1,183 @@
 package com.iot.mops.ruleengine.service;
 
+import com.iot.mops.common.amqp.TraceHeaders;
 import com.iot.mops.common.dto.Alert;
 import com.iot.mops.common.dto.QueueEnvelope;
+import com.iot.mops.ruleengine.alert.AlertPipeline;
+import com.iot.mops.ruleengine.checkpoint.WindowCheckpointer;
 import com.iot.mops.ruleengine.metrics.RuleMetrics;
-import com.iot.mops.ruleengine.store.AlertRepository;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleRegistry;
+import com.iot.mops.ruleengine.shard.ShardCoordinator;
+import com.iot.mops.ruleengine.timer.DeviceTimers;
+import com.iot.mops.ruleengine.tracing.PipelineTracer;
+import com.iot.mops.ruleengine.window.WindowStore;
 import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class RuleEngineService {
 
-    private final AlertRepository alertRepository;
+    private final AlertPipeline alertPipeline;
     private final RuleMetrics metrics;
+    private final WindowStore windowStore;
+    private final DevicePartitioner partitioner;
+    private final RuleRegistry ruleRegistry;
+    private final DeviceTimers deviceTimers;
+    private final WindowCheckpointer checkpointer;
+    private final PipelineTracer tracer;
 
-    @Value("${app.rules.window-size:10}")
-    private int windowSize;
+    @Value("${app.rules.metrics.rule-timing-sample:100}")
+    private int ruleTimingSample;
 
-    @Value("${app.rules.max-window-age-sec:60}")
-    private long maxWindowAgeSec;
+    // Буфер кандидатов на каждый воркер партиции, чтобы не аллоцировать список на каждое сообщение
+    private final ThreadLocal<List<CompiledRule>> candidates = ThreadLocal.withInitial(() -> new ArrayList<>(64));
 
-    private final Map<String, Deque<QueueEnvelope>> windows = new ConcurrentHashMap<>();
+    /**
+     * Evaluation runs on the device's partition worker; the message is acked when the returned future completes,
+     * which with ack-after-checkpoint also waits for the window state to be checkpointed.
+     */
+    @RabbitListener(queues = "${app.rabbit.queue}",
+            autoStartup = "#{!${app.rabbit.listener.batch.enabled:false} && ${app.rabbit.shards.count:0} == 0}")
+    public CompletableFuture<Void> handle(QueueEnvelope envelope,
+                                          @Header(name = TraceHeaders.PUBLISHED_AT, required = false) Long publishedAt) {
+        long deliveredNanos = System.nanoTime();
+        long deliveredMillis = System.currentTimeMillis();
+        tracer.delivered(envelope, publishedAt, deliveredMillis);
+        CompletableFuture<Void> evaluated = partitioner.submit(envelope.getDeviceId(), () -> {
+            evaluate(envelope, null);
+            tracer.evaluated(envelope, publishedAt, deliveredMillis, deliveredNanos);
+        });
+        return checkpointer.whenCheckpointed(evaluated);
+    }
 
-    @RabbitListener(queues = "${app.rabbit.queue}")
-    public void handle(QueueEnvelope envelope) {
-        log.debug("Received envelope {}", envelope);
-        Timer.Sample timer = metrics.startTimer();
-        
+    /**
+     * Batch mode: the batch is fanned out to the partition workers, alerts it opened are written in one bulk
+     * insert, and the container acks the whole batch when this method returns (with ack-after-checkpoint, once
+     * the batch's window state has been checkpointed). The windows are already fed when the alerts are written,
+     * so a failing insert is retried here rather than nacking the batch into a second evaluation.
+     */
+    @RabbitListener(queues = "${app.rabbit.queue}", containerFactory = "batchRabbitListenerContainerFactory",
+            autoStartup = "#{${app.rabbit.listener.batch.enabled:false} && ${app.rabbit.shards.count:0} == 0}")
+    public void handleBatch(List<Message<QueueEnvelope>> messages) {
+        metrics.recordListenerBatch(messages.size());
+        long deliveredNanos = System.nanoTime();
+        long deliveredMillis = System.currentTimeMillis();
+        for (Message<QueueEnvelope> message : messages) {
+            tracer.delivered(message.getPayload(), publishedAt(message), deliveredMillis);
+        }
+        Queue<Alert> opened = new ConcurrentLinkedQueue<>();
+        CompletableFuture<Void> evaluated = partitioner.submitAll(messages, RuleEngineService::deviceId, message -> {
+            QueueEnvelope envelope = message.getPayload();
+            try {
+                evaluate(envelope, opened::add);
+                tracer.evaluated(envelope, publishedAt(message), deliveredMillis, deliveredNanos);
+            } catch (RuntimeException e) {
+                // Не проваливаем весь пакет из-за одного сообщения: повторная доставка продублировала бы окна
+                log.error("Failed to evaluate envelope {}", envelope.getCorrelationId(), e);
+            }
+        });
         try {
-            metrics.incrementMessagesProcessed();
-            checkInstantRule(envelope);
-            checkWindowRule(envelope);
+            evaluated.join();
         } finally {
-            metrics.stopTimer(timer);
+            alertPipeline.writeAll(opened);
         }
+        // Алерты пишем сразу, а ack пакета ждёт checkpoint его окон
+        checkpointer.whenCheckpointed(evaluated).join();
     }
 
-    private void checkInstantRule(QueueEnvelope envelope) {
-        Double aValue = extractA(envelope.getPayload());
-        if (aValue != null && aValue > 5) {
-            saveAlert("instant-a-gt-5", "instant", 1, envelope);
-        }
+    /**
+     * Sharded mode: consumes the shard queues this instance holds leases for; {@link ShardCoordinator} adds and
+     * removes them at runtime. Acked like {@link #handle}.
+     */
+    @RabbitListener(id = ShardCoordinator.LISTENER_ID, containerFactory = "shardRabbitListenerContainerFactory",
+            autoStartup = "#{${app.rabbit.shards.count:0} > 0}")
+    public CompletableFuture<Void> handleShard(QueueEnvelope envelope,
+                                               @Header(name = TraceHeaders.PUBLISHED_AT, required = false) Long publishedAt) {
+        return handle(envelope, publishedAt);
     }
 
-    private void checkWindowRule(QueueEnvelope envelope) {
-        Deque<QueueEnvelope> deque = windows.computeIfAbsent(envelope.getDeviceId(), k -> new ArrayDeque<>());
-        deque.addLast(envelope);
-        while (deque.size() > windowSize) {
-            deque.pollFirst();
-        }
-        evictOld(envelope.getDeviceId(), deque);
-
-        if (deque.size() == windowSize && deque.stream().allMatch(q -> {
-            Double a = extractA(q.getPayload());
-            return a != null && a > 5;
-        })) {
-            saveAlert("window-a-gt-5-n-" + windowSize, "window", deque.size(), envelope);
-        }
+    private static String deviceId(Message<QueueEnvelope> message) {
+        return message.getPayload().getDeviceId();
     }
 
-    @Scheduled(fixedDelayString = "60000")
-    public void cleanup() {
-        windows.forEach(this::evictOld);
+    private static Long publishedAt(Message<QueueEnvelope> message) {
+        return message.getHeaders().get(TraceHeaders.PUBLISHED_AT, Long.class);
     }
 
-    private void evictOld(String deviceId, Deque<QueueEnvelope> deque) {
-        Instant cutoff = Instant.now().minus(Duration.ofSeconds(maxWindowAgeSec));
-        while (!deque.isEmpty() && deque.peekFirst().getTs().isBefore(cutoff)) {
-            deque.pollFirst();
-        }
-        if (deque.isEmpty()) {
-            windows.remove(deviceId);
+    /**
+     * @param alertSink receives opened alerts in batch mode; {@code null} hands them to the pipeline's write queue
+     */
+    private void evaluate(QueueEnvelope envelope, Consumer<Alert> alertSink) {
+        log.debug("Received envelope {}", envelope);
+        Timer.Sample timer = metrics.startTimer();
+
+        try {
+            metrics.incrementMessagesProcessed();
+            String deviceId = envelope.getDeviceId();
+            Map<String, Object> payload = envelope.getPayload();
+            long tsMillis = envelope.getTs().toEpochMilli();
+            long nowMillis = System.currentTimeMillis();
+            deviceTimers.onEnvelope(deviceId, nowMillis);
+            // Watermark устройства двигается любым его сообщением, даже без полей оконных правил
+            windowStore.observe(deviceId, tsMillis);
+
+            List<CompiledRule> rules = candidates.get();
+            rules.clear();
+            ruleRegistry.current().collectCandidates(deviceId, payload, rules);
+            metrics.recordCandidateRules(rules.size());
+
+            boolean timed = ruleTimingSample > 0 && ThreadLocalRandom.current().nextInt(ruleTimingSample) == 0;
+            for (int i = 0; i < rules.size(); i++) {
+                CompiledRule rule = rules.get(i);
+                long start = timed ? System.nanoTime() : 0;
+                boolean fired = rule.evaluate(deviceId, payload, tsMillis, nowMillis, windowStore);
+                if (timed) {
+                    metrics.recordRuleEvaluation(rule.id(), System.nanoTime() - start);
+                }
+                if (fired) {
+                    saveAlert(rule, envelope, alertSink);
+                }
+            }
+            rules.clear();
+        } finally {
+            metrics.stopTimer(timer);
         }
     }
 
-    private void saveAlert(String ruleId, String kind, int size, QueueEnvelope envelope) {
+    private void saveAlert(CompiledRule rule, QueueEnvelope envelope, Consumer<Alert> alertSink) {
+        String kind = rule.kind();
         Alert alert = Alert.builder()
-                .ruleId(ruleId)
+                .ruleId(rule.id())
                 .deviceId(envelope.getDeviceId())
                 .kind(kind)
-                .windowSize(size)
-                .condition("payload.a > 5")
+                .windowSize(rule.alertWindowSize())
+                .condition(rule.condition())
                 .triggeredAt(Instant.now())
                 .payloadSnapshot(envelope.getPayload())
                 .correlationId(envelope.getCorrelationId())
+                .ingestedAt(envelope.getIngestedAt())
                 .build();
-        alertRepository.save(alert);
-        
+
         // Record metrics
         if ("instant".equals(kind)) {
             metrics.incrementInstantAlerts();
@@ -107,15 +185,12 @@ public class RuleEngineService {
             metrics.incrementWindowAlerts();
         }
         metrics.recordAlertForDevice(envelope.getDeviceId(), kind);
-        
-        log.info("Alert triggered {}", alert);
-    }
 
-    private Double extractA(Map<String, Object> payload) {
-        Object value = payload.get("a");
-        if (value instanceof Number number) {
-            return number.doubleValue();
+        boolean opened = alertSink == null ? alertPipeline.submit(alert) : alertPipeline.submit(alert, alertSink);
+        if (opened) {
+            log.info("Alert triggered {}", alert);
+        } else {
+            log.debug("Alert suppressed {} for {}", rule.id(), envelope.getDeviceId());
         }
-        return null;
     }
 }
@@ -0,0 +1,298 @@
+package com.iot.mops.ruleengine.shard;
+
+import com.iot.mops.common.amqp.DeviceShards;
+import com.iot.mops.ruleengine.checkpoint.WindowCheckpointer;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.timer.DeviceTimers;
+import com.iot.mops.ruleengine.window.WindowStore;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Updates;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Assigns shard queues to rule-engine instances through leases in MongoDB. Every {@code heartbeat-ms} an instance
+ * refreshes its membership and its leases, releases shards above its fair share ({@code ceil(shards / members)})
+ * and claims free or expired ones up to it. A claimed shard's window state is restored from its checkpoint before
+ * the shard queue is consumed; a released shard's queue is dropped first, in-flight messages are drained and
+ * checkpointed, and its devices are forgotten locally. A device's state therefore lives on one instance at a time,
+ * and the single-active-consumer queues keep delivery exclusive while a lease changes hands.
+ * <p>
+ * Leases that could not be renewed for {@code lease-ttl-ms} are given up without a checkpoint, since another
+ * instance may already own them.
+ * <p>
+ * Rebalancing runs on its own thread rather than the shared scheduler: restoring a claimed shard or draining a
+ * released one can take long, and must not hold up the timers and checkpoints scheduled there.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ShardCoordinator {
+
+    public static final String LISTENER_ID = "shardListener";
+
+    private static final String LEASES = "shard_leases";
+    private static final String MEMBERS = "rule_engine_members";
+
+    private final MongoTemplate mongoTemplate;
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final WindowCheckpointer checkpointer;
+    private final WindowStore windowStore;
+    private final DeviceTimers deviceTimers;
+    private final DevicePartitioner partitioner;
+    private final RuleMetrics metrics;
+
+    @Value("${app.rabbit.shards.count:0}")
+    private int shards;
+
+    @Value("${app.rabbit.queue}")
+    private String queue;
+
+    @Value("${app.rabbit.shards.lease-ttl-ms:15000}")
+    private long leaseTtlMs;
+
+    @Value("${app.rabbit.shards.instance-id:}")
+    private String instanceId;
+
+    @Value("${app.rabbit.shards.heartbeat-ms:5000}")
+    private long heartbeatMs;
+
+    private ScheduledExecutorService executor;
+
+    // Доступ только под this
+    private final TreeSet<Integer> owned = new TreeSet<>();
+    private volatile int ownedCount;
+    private long renewedAt;
+
+    @PostConstruct
+    void init() {
+        if (shards <= 0) {
+            return;
+        }
+        if (instanceId.isBlank()) {
+            // В контейнере hostname уникален, а pid равен 1: перезапущенный контейнер сразу вернёт свои аренды
+            instanceId = hostname() + "-" + ProcessHandle.current().pid();
+        }
+        metrics.bindOwnedShards(() -> ownedCount);
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                rebalance();
+            } catch (RuntimeException e) {
+                // Исключение из периодической задачи отменило бы все следующие запуски
+                log.error("Shard rebalance failed", e);
+            }
+        }, 0, heartbeatMs, TimeUnit.MILLISECONDS);
+        log.info("Sharded consumption over {} shards as instance {}", shards, instanceId);
+    }
+
+    public synchronized void rebalance() {
+        // Поток стартует вместе с бином, а контейнер листенера появляется и запускается позже
+        AbstractMessageListenerContainer container = shards > 0 ? container() : null;
+        if (container == null || !container.isRunning()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            int members = heartbeat(now);
+            Set<Integer> held = renew(now);
+            renewedAt = now;
+            for (Integer shard : new ArrayList<>(owned)) {
+                if (!held.contains(shard)) {
+                    log.warn("Lease of shard {} was taken over by another instance", shard);
+                    lose(shard);
+                }
+            }
+            // Аренды, оставшиеся от прошлого запуска с тем же instance-id
+            for (Integer shard : held) {
+                if (!owned.contains(shard)) {
+                    acquire(shard);
+                }
+            }
+
+            int fairShare = (shards + members - 1) / members;
+            while (owned.size() > fairShare) {
+                release(owned.last());
+            }
+            int offset = Math.floorMod(instanceId.hashCode(), shards);
+            for (int i = 0; i < shards && owned.size() < fairShare; i++) {
+                int shard = (offset + i) % shards;
+                if (!owned.contains(shard) && claim(shard, now)) {
+                    acquire(shard);
+                }
+            }
+        } catch (DataAccessException | MongoException e) {
+            log.warn("Shard lease heartbeat failed: {}", e.getMessage());
+            if (now - renewedAt > leaseTtlMs) {
+                for (Integer shard : new ArrayList<>(owned)) {
+                    log.warn("Giving up shard {}: lease not renewed for {} ms", shard, now - renewedAt);
+                    lose(shard);
+                }
+            }
+        } finally {
+            ownedCount = owned.size();
+        }
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (shards <= 0 || owned.isEmpty()) {
+            return;
+        }
+        // Контейнер уже остановлен: дорабатываем принятое и сохраняем окна для следующих владельцев шардов
+        drain();
+        if (!checkpointer.checkpoint()) {
+            log.warn("Final checkpoint before releasing shards {} failed", owned);
+        }
+        try {
+            leases().deleteMany(Filters.eq("owner", instanceId));
+            members().deleteOne(Filters.eq("_id", instanceId));
+            log.info("Released shards {}", owned);
+        } catch (MongoException e) {
+            log.warn("Failed to release shard leases, they expire in {} ms: {}", leaseTtlMs, e.getMessage());
+        }
+        owned.clear();
+    }
+
+    private int heartbeat(long now) {
+        MongoCollection<Document> members = members();
+        members.replaceOne(Filters.eq("_id", instanceId),
+                new Document("_id", instanceId).append("expiresAt", new Date(now + leaseTtlMs)),
+                new ReplaceOptions().upsert(true));
+        members.deleteMany(Filters.lt("expiresAt", new Date(now)));
+        return (int) Math.max(1, members.countDocuments(Filters.gte("expiresAt", new Date(now))));
+    }
+
+    private Set<Integer> renew(long now) {
+        MongoCollection<Document> leases = leases();
+        leases.updateMany(Filters.eq("owner", instanceId), Updates.set("expiresAt", new Date(now + leaseTtlMs)));
+        Set<Integer> held = new HashSet<>();
+        for (Document lease : leases.find(Filters.eq("owner", instanceId))) {
+            held.add(lease.getInteger("_id"));
+        }
+        return held;
+    }
+
+    /**
+     * Takes the shard's lease if it is free or expired. A missing lease is inserted by the upsert; one held by a
+     * live instance makes the upsert collide on {@code _id}.
+     */
+    private boolean claim(int shard, long now) {
+        try {
+            leases().findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", shard), Filters.lt("expiresAt", new Date(now))),
+                    Updates.combine(Updates.set("owner", instanceId),
+                            Updates.set("expiresAt", new Date(now + leaseTtlMs))),
+                    new FindOneAndUpdateOptions().upsert(true));
+            return true;
+        } catch (MongoException e) {
+            if (ErrorCategory.fromErrorCode(e.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private void acquire(int shard) {
+        checkpointer.restoreShard(shard);
+        container().addQueueNames(DeviceShards.queueName(queue, shard));
+        owned.add(shard);
+        metrics.incrementShardChanges("claimed");
+        log.info("Claimed shard {}", shard);
+    }
+
+    private void release(int shard) {
+        stopConsuming(shard);
+        drain();
+        if (!checkpointer.checkpoint()) {
+            log.warn("Checkpoint before releasing shard {} failed, its newest window state is lost", shard);
+        }
+        forget(shard);
+        leases().deleteOne(Filters.and(Filters.eq("_id", shard), Filters.eq("owner", instanceId)));
+        metrics.incrementShardChanges("released");
+        log.info("Released shard {}", shard);
+    }
+
+    /**
+     * Drops a shard that may already belong to another instance: nothing of it may be written any more.
+     */
+    private void lose(int shard) {
+        stopConsuming(shard);
+        drain();
+        forget(shard);
+        metrics.incrementShardChanges("lost");
+    }
+
+    private void stopConsuming(int shard) {
+        container().removeQueueNames(DeviceShards.queueName(queue, shard));
+        owned.remove(shard);
+    }
+
+    private void drain() {
+        // Задача ставится в очередь воркера за уже принятыми сообщениями
+        partitioner.submitToAll(partition -> { }).join();
+    }
+
+    private void forget(int shard) {
+        Predicate<String> inShard = deviceId -> DeviceShards.shardOf(deviceId, shards) == shard;
+        partitioner.submitToAll(partition -> {
+            windowStore.forget(partition, inShard);
+            deviceTimers.forget(partition, inShard);
+        }).join();
+        checkpointer.discardUnwritten(inShard);
+    }
+
+    private AbstractMessageListenerContainer container() {
+        return (AbstractMessageListenerContainer) listenerRegistry.getListenerContainer(LISTENER_ID);
+    }
+
+    private MongoCollection<Document> leases() {
+        return mongoTemplate.getCollection(LEASES);
+    }
+
+    private MongoCollection<Document> members() {
+        return mongoTemplate.getCollection(MEMBERS);
+    }
+
+    private static String hostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "rule-engine";
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.iot.mops.ruleengine.store;
+
+import com.iot.mops.common.dto.Alert;
+import com.iot.mops.ruleengine.checkpoint.WindowCheckpointer;
+import com.mongodb.MongoException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the indexes of the {@code alerts} collection on startup: (deviceId, triggeredAt) serves a device's
+ * alerts newest first; (shards, shard) on {@code window_checkpoints} serves restoring a claimed shard. Runs before
+ * the listeners start consuming. Failures are logged and do not stop the service.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MongoSchemaInitializer implements SmartInitializingSingleton {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ensureIndex(mongoTemplate.getCollectionName(Alert.class), new Index()
+                .on("deviceId", Sort.Direction.ASC)
+                .on("triggeredAt", Sort.Direction.DESC)
+                .named("deviceId_triggeredAt"));
+        ensureIndex(WindowCheckpointer.COLLECTION, new Index()
+                .on("shards", Sort.Direction.ASC)
+                .on("shard", Sort.Direction.ASC)
+                .named("shards_shard"));
+    }
+
+    private void ensureIndex(String collection, Index index) {
+        try {
+            mongoTemplate.indexOps(collection).ensureIndex(index);
+            log.info("Ensured indexes on {}", collection);
+        } catch (DataAccessException | MongoException e) {
+            log.error("Failed to initialize schema of {}: {}", collection, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.iot.mops.ruleengine.store;
+
+import com.iot.mops.ruleengine.rule.RuleDefinition;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface RuleDefinitionRepository extends MongoRepository<RuleDefinition, String> {
+}
@@ -0,0 +1,228 @@
+package com.iot.mops.ruleengine.timer;
+
+import com.iot.mops.common.dto.Alert;
+import com.iot.mops.ruleengine.alert.AlertPipeline;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import com.iot.mops.ruleengine.rule.CompiledRule;
+import com.iot.mops.ruleengine.rule.RuleRegistry;
+import com.iot.mops.ruleengine.window.WindowStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Per-device timers on one {@link TimingWheel} per partition, touched only from the partition's worker. The liveness
+ * timer raises a {@code silence} alert when a device sends nothing for {@code app.rules.liveness.silence-timeout-sec};
+ * the window timer drops an idle device's windows once their readings have aged out, first judging the event-time
+ * windows a watermark would have closed by then, since an idle device no longer moves it. Readings are in event time,
+ * so the eviction cutoff is the device's newest event timestamp advanced by the time it has been idle, not the wall
+ * clock, and a backfilling or lagging device keeps its windows. A silent device stays tracked after its windows are
+ * gone, so that its resumption is logged; only {@link #forget} drops it. Timers are re-armed lazily:
+ * an envelope only records when the device was seen, and a timer that expires for a device seen since then moves
+ * itself to the new deadline. The cost is proportional to expirations, not to the number of tracked devices.
+ */
+@Component
+@Slf4j
+public class DeviceTimers {
+
+    public static final String SILENCE_RULE_ID = "device-silent";
+    public static final String SILENCE_KIND = "silence";
+
+    private final DevicePartitioner partitioner;
+    private final WindowStore windowStore;
+    private final RuleRegistry ruleRegistry;
+    private final AlertPipeline alertPipeline;
+    private final RuleMetrics metrics;
+    private final long silenceTimeoutMillis;
+    private final Map<String, DeviceActivity>[] devices;
+    private final TimingWheel<DeviceActivity>[] wheels;
+
+    @SuppressWarnings("unchecked")
+    public DeviceTimers(DevicePartitioner partitioner, WindowStore windowStore, RuleRegistry ruleRegistry,
+                        AlertPipeline alertPipeline, RuleMetrics metrics,
+                        @Value("${app.rules.liveness.silence-timeout-sec:300}") long silenceTimeoutSec,
+                        @Value("${app.rules.timers.tick-ms:1000}") long tickMs) {
+        this.partitioner = partitioner;
+        this.windowStore = windowStore;
+        this.ruleRegistry = ruleRegistry;
+        this.alertPipeline = alertPipeline;
+        this.metrics = metrics;
+        this.silenceTimeoutMillis = silenceTimeoutSec * 1000;
+        this.devices = new Map[partitioner.partitions()];
+        this.wheels = new TimingWheel[partitioner.partitions()];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = new HashMap<>();
+            wheels[i] = new TimingWheel<>(tickMs, now);
+        }
+        metrics.bindTrackedDevices(this::trackedDevices);
+    }
+
+    /**
+     * Records that the device was seen at {@code nowMillis} and arms its timers if they are idle. Must run on the
+     * device's partition worker.
+     */
+    public void onEnvelope(String deviceId, long nowMillis) {
+        long maxWindowAge = ruleRegistry.current().maxWindowAgeMillis();
+        if (silenceTimeoutMillis <= 0 && maxWindowAge <= 0) {
+            return;
+        }
+        int partition = partitioner.partitionOf(deviceId);
+        DeviceActivity activity = devices[partition].get(deviceId);
+        if (activity == null) {
+            activity = new DeviceActivity(deviceId);
+            devices[partition].put(deviceId, activity);
+        }
+        if (activity.silent) {
+            activity.silent = false;
+            log.info("Device {} resumed after {} ms of silence", deviceId, nowMillis - activity.lastSeen);
+        }
+        activity.lastSeen = nowMillis;
+
+        TimingWheel<DeviceActivity> wheel = wheels[partition];
+        if (silenceTimeoutMillis > 0 && !activity.liveness.isScheduled()) {
+            wheel.schedule(activity.liveness, nowMillis + silenceTimeoutMillis);
+        }
+        if (maxWindowAge > 0 && !activity.windows.isScheduled()) {
+            wheel.schedule(activity.windows, nowMillis + maxWindowAge);
+        }
+    }
+
+    /**
+     * Cancels the timers of the partition's devices accepted by {@code matching}, for devices now handled by another
+     * instance. Must run on the partition's worker.
+     */
+    public void forget(int partition, Predicate<String> matching) {
+        Iterator<DeviceActivity> it = devices[partition].values().iterator();
+        while (it.hasNext()) {
+            DeviceActivity activity = it.next();
+            if (matching.test(activity.deviceId)) {
+                wheels[partition].cancel(activity.liveness);
+                wheels[partition].cancel(activity.windows);
+                it.remove();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.rules.timers.tick-ms:1000}")
+    public void tick() {
+        partitioner.submitToAll(this::advance);
+    }
+
+    private void advance(int partition) {
+        long now = System.currentTimeMillis();
+        int expired = wheels[partition].advance(now, timeout -> expire(partition, timeout, now));
+        if (expired > 0) {
+            metrics.incrementTimersExpired(expired);
+        }
+    }
+
+    private void expire(int partition, TimingWheel.Timeout<DeviceActivity> timeout, long now) {
+        DeviceActivity activity = timeout.item();
+        TimingWheel<DeviceActivity> wheel = wheels[partition];
+        if (timeout == activity.liveness) {
+            long deadline = activity.lastSeen + silenceTimeoutMillis;
+            if (deadline > now) {
+                wheel.schedule(timeout, deadline);
+                return;
+            }
+            activity.silent = true;
+            raiseSilence(activity, now);
+        } else {
+            long maxWindowAge = ruleRegistry.current().maxWindowAgeMillis();
+            long deadline = activity.lastSeen + maxWindowAge;
+            if (maxWindowAge > 0 && deadline > now) {
+                wheel.schedule(timeout, deadline);
+                return;
+            }
+            // Без оконных правил (maxWindowAge == 0) cutoff = now, и окна устройства удаляются целиком
+            windowStore.evictOlderThan(activity.deviceId, eventNow(activity, now) - maxWindowAge,
+                    windowKey -> raiseWindowAlert(activity.deviceId, windowKey, now));
+            if (maxWindowAge > 0 && windowStore.contains(activity.deviceId)) {
+                // Остались показания на границе окна — проверим ещё раз через полный возраст окна
+                wheel.schedule(timeout, now + maxWindowAge);
+                return;
+            }
+        }
+        // Замолчавшее устройство держим, чтобы при возобновлении увидеть переход; снимает его только forget
+        if (!activity.silent && !activity.liveness.isScheduled() && !activity.windows.isScheduled()) {
+            devices[partition].remove(activity.deviceId, activity);
+        }
+    }
+
+    /**
+     * Event time of an idle device at wall-clock {@code now}: its newest event timestamp advanced by the time since
+     * it was last seen. Falls back to {@code now} for a device without tracked event time.
+     */
+    private long eventNow(DeviceActivity activity, long now) {
+        long maxEventTs = windowStore.maxEventTs(activity.deviceId);
+        if (maxEventTs == Long.MIN_VALUE || ruleRegistry.current().maxWindowAgeMillis() <= 0) {
+            return now;
+        }
+        return maxEventTs + (now - activity.lastSeen);
+    }
+
+    private void raiseSilence(DeviceActivity activity, long now) {
+        Alert alert = Alert.builder()
+                .ruleId(SILENCE_RULE_ID)
+                .deviceId(activity.deviceId)
+                .kind(SILENCE_KIND)
+                .windowSize(0)
+                .condition("no data for " + silenceTimeoutMillis / 1000 + "s")
+                .triggeredAt(Instant.ofEpochMilli(now))
+                .build();
+        metrics.incrementSilenceAlerts();
+        metrics.recordAlertForDevice(activity.deviceId, SILENCE_KIND);
+        if (alertPipeline.submit(alert)) {
+            log.info("Device {} silent since {}", activity.deviceId, Instant.ofEpochMilli(activity.lastSeen));
+        }
+    }
+
+    private void raiseWindowAlert(String deviceId, String windowKey, long now) {
+        CompiledRule rule = ruleRegistry.current().windowRule(windowKey);
+        if (rule == null) {
+            return;
+        }
+        Alert alert = Alert.builder()
+                .ruleId(rule.id())
+                .deviceId(deviceId)
+                .kind(rule.kind())
+                .windowSize(rule.alertWindowSize())
+                .condition(rule.condition())
+                .triggeredAt(Instant.ofEpochMilli(now))
+                .build();
+        metrics.incrementWindowAlerts();
+        metrics.recordAlertForDevice(deviceId, rule.kind());
+        if (alertPipeline.submit(alert)) {
+            log.info("Alert triggered on idle eviction {}", alert);
+        }
+    }
+
+    private int trackedDevices() {
+        int total = 0;
+        for (Map<String, DeviceActivity> partition : devices) {
+            total += partition.size();
+        }
+        return total;
+    }
+
+    private static final class DeviceActivity {
+        private final String deviceId;
+        private final TimingWheel.Timeout<DeviceActivity> liveness = new TimingWheel.Timeout<>(this);
+        private final TimingWheel.Timeout<DeviceActivity> windows = new TimingWheel.Timeout<>(this);
+        private long lastSeen;
+        private boolean silent;
+
+        private DeviceActivity(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
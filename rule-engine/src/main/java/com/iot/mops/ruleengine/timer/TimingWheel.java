@@ -0,0 +1,194 @@
+package com.iot.mops.ruleengine.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: four levels of 64 slots, each level's slot spanning a full rotation of the level
+ * below. Scheduling and cancelling are O(1); {@link #advance} costs one step per elapsed tick plus the work on
+ * timeouts that expire or cascade to a finer level, independent of how many timeouts are pending. Deadlines are
+ * rounded up to the tick, so a timeout never fires early; ones beyond the wheel's span (64^4 ticks) park in the top
+ * level and are re-placed when it comes around. Not thread-safe.
+ */
+public final class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+    // Таймаут снят со слота и ждёт вызова обработчика в текущем advance
+    private static final int EXPIRING = -2;
+
+    private final long tickMillis;
+    private final Timeout<T>[] buckets;
+    private final List<Timeout<T>> due = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new Timeout[LEVELS * SIZE];
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules {@code timeout} to fire at {@code deadlineMillis}, moving it if it is already scheduled.
+     */
+    public void schedule(Timeout<T> timeout, long deadlineMillis) {
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+        } else {
+            size++;
+        }
+        timeout.bucket = -1;
+        timeout.deadline = deadlineMillis;
+        place(timeout, currentTick + 1);
+    }
+
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+            size--;
+        }
+        timeout.bucket = -1;
+    }
+
+    /**
+     * Moves the wheel to {@code nowMillis}, handing every timeout that expired to {@code expired}. The callback may
+     * reschedule the timeout it receives.
+     *
+     * @return the number of expired timeouts
+     */
+    public int advance(long nowMillis, Consumer<Timeout<T>> expired) {
+        long target = nowMillis / tickMillis;
+        int fired = 0;
+        while (currentTick < target) {
+            currentTick++;
+            // Начало оборота уровня: раскладываем его текущий слот по более мелким уровням
+            for (int level = 1; level < LEVELS && (currentTick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+                cascade(level * SIZE + (int) ((currentTick >>> (BITS * level)) & MASK));
+            }
+            fired += expire((int) (currentTick & MASK), expired);
+        }
+        return fired;
+    }
+
+    /**
+     * Number of scheduled timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int expire(int bucket, Consumer<Timeout<T>> expired) {
+        // Сначала снимаем весь слот: обработчик может переставить или отменить и другие таймауты из него
+        Timeout<T> timeout = detach(bucket);
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = EXPIRING;
+            size--;
+            due.add(timeout);
+            timeout = next;
+        }
+        int fired = 0;
+        for (int i = 0; i < due.size(); i++) {
+            Timeout<T> candidate = due.get(i);
+            if (candidate.bucket == EXPIRING) {
+                candidate.bucket = -1;
+                fired++;
+                expired.accept(candidate);
+            }
+        }
+        due.clear();
+        return fired;
+    }
+
+    private void cascade(int bucket) {
+        Timeout<T> timeout = detach(bucket);
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            timeout.bucket = -1;
+            // Слот текущего тика ещё будет обработан в этом шаге
+            place(timeout, currentTick);
+            timeout = next;
+        }
+    }
+
+    private Timeout<T> detach(int bucket) {
+        Timeout<T> head = buckets[bucket];
+        buckets[bucket] = null;
+        return head;
+    }
+
+    private void place(Timeout<T> timeout, long earliestTick) {
+        long tick = Math.max(-Math.floorDiv(-timeout.deadline, tickMillis), earliestTick);
+        long delta = Math.min(tick - currentTick, SPAN - 1);
+        tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        link(timeout, level * SIZE + (int) ((tick >>> (BITS * level)) & MASK));
+    }
+
+    private void link(Timeout<T> timeout, int bucket) {
+        Timeout<T> head = buckets[bucket];
+        timeout.bucket = bucket;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[bucket] = timeout;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * A reusable timer handle; at most one pending deadline at a time.
+     */
+    public static final class Timeout<T> {
+        private final T item;
+        private long deadline;
+        private int bucket = -1;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        public Timeout(T item) {
+            this.item = item;
+        }
+
+        public T item() {
+            return item;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.iot.mops.ruleengine.tracing;
+
+import com.iot.mops.common.dto.Alert;
+import com.iot.mops.common.dto.QueueEnvelope;
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Times an event's path from ingest to alert persistence. Stages are recorded as
+ * {@code rules.pipeline.stage.latency}:
+ * <ul>
+ *     <li>{@code publish}: ingest to the controller's publish ({@code ingestedAt} to the publish header)</li>
+ *     <li>{@code queue}: publish to delivery to the listener</li>
+ *     <li>{@code evaluation}: delivery to evaluated, including the wait on the partition worker</li>
+ *     <li>{@code alert_write}: trigger to the alert's bulk insert</li>
+ * </ul>
+ * The first two compare wall clocks of different hosts and are clamped at zero. The {@code slow-log-size} slowest
+ * events of each {@code slow-log-interval-ms} are logged with their correlation ids and stage breakdown.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PipelineTracer {
+
+    private static final Comparator<SlowEvent> BY_TOTAL = Comparator.comparingLong(SlowEvent::totalMs);
+
+    private final RuleMetrics metrics;
+
+    @Value("${app.tracing.slow-log-size:10}")
+    private int slowLogSize;
+
+    // Куча с самым быстрым из отобранных наверху; доступ под this
+    private final PriorityQueue<SlowEvent> slowest = new PriorityQueue<>(BY_TOTAL);
+    // Порог попадания в кучу: позволяет отбросить быстрые события без блокировки
+    private volatile long admitAboveMs = -1;
+
+    /**
+     * Records the publish and queue stages of a delivered envelope.
+     *
+     * @param publishedAt the {@code x-published-at} header, {@code null} if the publisher did not set it
+     */
+    public void delivered(QueueEnvelope envelope, Long publishedAt, long deliveredMillis) {
+        if (publishedAt == null) {
+            return;
+        }
+        if (envelope.getIngestedAt() != null) {
+            metrics.recordStage("publish", Math.max(0, publishedAt - envelope.getIngestedAt().toEpochMilli()));
+        }
+        metrics.recordStage("queue", Math.max(0, deliveredMillis - publishedAt));
+    }
+
+    /**
+     * Records the evaluation stage and the end-to-end latency of an evaluated envelope.
+     */
+    public void evaluated(QueueEnvelope envelope, Long publishedAt, long deliveredMillis, long deliveredNanos) {
+        long evaluationMs = (System.nanoTime() - deliveredNanos) / 1_000_000;
+        metrics.recordStage("evaluation", evaluationMs);
+        if (envelope.getIngestedAt() == null) {
+            return;
+        }
+        long ingestedAt = envelope.getIngestedAt().toEpochMilli();
+        long totalMs = Math.max(0, deliveredMillis + evaluationMs - ingestedAt);
+        metrics.recordEndToEnd("evaluated", totalMs);
+        if (totalMs > admitAboveMs) {
+            long publishMs = publishedAt != null ? Math.max(0, publishedAt - ingestedAt) : -1;
+            long queueMs = publishedAt != null ? Math.max(0, deliveredMillis - publishedAt) : -1;
+            offer(new SlowEvent(envelope.getCorrelationId(), envelope.getDeviceId(), "evaluated", totalMs,
+                    publishMs, queueMs, evaluationMs, -1));
+        }
+    }
+
+    /**
+     * Records the write stage of alerts persisted at {@code writtenMillis}.
+     */
+    public void alertsWritten(List<Alert> alerts, long writtenMillis) {
+        for (Alert alert : alerts) {
+            long writeMs = Math.max(0, writtenMillis - alert.getTriggeredAt().toEpochMilli());
+            metrics.recordStage("alert_write", writeMs);
+            if (alert.getIngestedAt() == null) {
+                // Алерты о молчании не связаны с показанием
+                continue;
+            }
+            long totalMs = Math.max(0, writtenMillis - alert.getIngestedAt().toEpochMilli());
+            metrics.recordEndToEnd("alert_written", totalMs);
+            if (totalMs > admitAboveMs) {
+                offer(new SlowEvent(alert.getCorrelationId(), alert.getDeviceId(), "alert_written", totalMs,
+                        -1, -1, -1, writeMs));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.tracing.slow-log-interval-ms:60000}")
+    public void logSlowest() {
+        List<SlowEvent> events;
+        synchronized (this) {
+            events = new ArrayList<>(slowest);
+            slowest.clear();
+            admitAboveMs = -1;
+        }
+        events.sort(BY_TOTAL.reversed());
+        for (SlowEvent event : events) {
+            log.info("Slow event correlationId={} deviceId={} until={} totalMs={} publishMs={} queueMs={} "
+                            + "evaluationMs={} alertWriteMs={}",
+                    event.correlationId(), event.deviceId(), event.until(), event.totalMs(), event.publishMs(),
+                    event.queueMs(), event.evaluationMs(), event.alertWriteMs());
+        }
+    }
+
+    private synchronized void offer(SlowEvent event) {
+        if (slowLogSize <= 0) {
+            return;
+        }
+        if (slowest.size() < slowLogSize) {
+            slowest.add(event);
+        } else if (event.totalMs() > slowest.peek().totalMs()) {
+            slowest.poll();
+            slowest.add(event);
+        }
+        if (slowest.size() == slowLogSize) {
+            admitAboveMs = slowest.peek().totalMs();
+        }
+    }
+
+    /**
+     * Stage durations are {@code -1} where the stage does not apply or was not measured.
+     */
+    private record SlowEvent(String correlationId, String deviceId, String until, long totalMs,
+                             long publishMs, long queueMs, long evaluationMs, long alertWriteMs) {
+    }
+}
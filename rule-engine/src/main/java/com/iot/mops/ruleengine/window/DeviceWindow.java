@@ -0,0 +1,25 @@
+package com.iot.mops.ruleengine.window;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Window state of one device for one rule, kept in {@link WindowStore}.
+ */
+public interface DeviceWindow {
+
+    /**
+     * Drops readings (or whole windows) from before {@code cutoffMillis}.
+     */
+    void evictOlderThan(long cutoffMillis);
+
+    boolean isEmpty();
+
+    /**
+     * Writes the window's contents for a checkpoint. {@link #readFrom} on a fresh window of the same rule restores them.
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+    void readFrom(DataInput in) throws IOException;
+}
@@ -0,0 +1,69 @@
+package com.iot.mops.ruleengine.window;
+
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+/**
+ * Open event-time windows of one device for one rule. A window closes once the device's watermark (its newest event
+ * timestamp minus the rule's allowed lateness) passes the window's end; it is evaluated exactly once, at that point.
+ * A reading that only falls into windows that have closed or are already behind the watermark is late and dropped.
+ * The number of open windows is bounded by the window geometry and lateness, checked when the rule is compiled.
+ * Not thread-safe.
+ */
+public abstract class EventTimeWindows implements DeviceWindow {
+
+    private final DoublePredicate condition;
+    private final Predicate<WindowAggregates> aggregate;
+    private final int minCount;
+
+    protected EventTimeWindows(DoublePredicate condition, Predicate<WindowAggregates> aggregate, int minCount) {
+        this.condition = condition;
+        this.aggregate = aggregate;
+        this.minCount = minCount;
+    }
+
+    /**
+     * Adds a numeric reading at event time {@code tsMillis}. Returns {@code false} if it was late and dropped.
+     * Windows must first be closed up to the current watermark with {@link #closeUpTo}.
+     */
+    public abstract boolean add(long tsMillis, double value, long watermarkMillis);
+
+    /**
+     * Closes every window ending at or before {@code watermarkMillis} and reports whether any of them satisfied the
+     * rule's aggregate condition.
+     */
+    public abstract boolean closeUpTo(long watermarkMillis);
+
+    protected void accumulate(WindowAggregate window, double value) {
+        window.add(value, condition);
+    }
+
+    protected boolean fires(WindowAggregate window) {
+        return window.size() >= minCount && aggregate.test(window);
+    }
+
+    /**
+     * Tumbling ({@code slide == size}) or sliding windows of {@code size} ms starting every {@code slide} ms,
+     * aligned to the epoch. Open windows live in a ring indexed by start / slide.
+     */
+    public static EventTimeWindows sliding(long sizeMillis, long slideMillis, long latenessMillis,
+                                           DoublePredicate condition, Predicate<WindowAggregates> aggregate,
+                                           int minCount) {
+        return new SlidingWindows(sizeMillis, slideMillis, latenessMillis, condition, aggregate, minCount);
+    }
+
+    /**
+     * Windows over bursts of readings separated by less than {@code gap} ms.
+     */
+    public static EventTimeWindows session(long gapMillis, long latenessMillis, DoublePredicate condition,
+                                           Predicate<WindowAggregates> aggregate, int minCount) {
+        return new SessionWindows(gapMillis, latenessMillis, condition, aggregate, minCount);
+    }
+
+    /**
+     * Most windows a device can have open at once for the given geometry.
+     */
+    public static int maxOpenWindows(long sizeMillis, long slideMillis, long latenessMillis) {
+        return (int) Math.min(Integer.MAX_VALUE, (sizeMillis + latenessMillis) / slideMillis + 2);
+    }
+}
@@ -0,0 +1,193 @@
+package com.iot.mops.ruleengine.window;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.DoublePredicate;
+
+/**
+ * Fixed-capacity sliding window over one numeric metric of one device. Values and event timestamps live in
+ * primitive ring buffers; the count of readings matching the window's condition, sum and min/max are maintained
+ * incrementally, so both {@link #add} and every aggregate read are O(1) (amortised for min/max) and allocation-free.
+ * A missing reading is stored as {@code NaN}: it occupies a slot and never matches the condition.
+ * Not thread-safe.
+ */
+public final class MetricWindow implements DeviceWindow, WindowAggregates {
+
+    private final int capacity;
+    private final DoublePredicate condition;
+    private final double[] values;
+    private final long[] timestamps;
+
+    // Последовательные номера элементов: элемент seq лежит в слоте seq % capacity
+    private long firstSeq;
+    private long nextSeq;
+
+    private double sum;
+    private int validCount;
+    private int matchCount;
+
+    // Монотонные очереди номеров элементов для min/max скользящего окна
+    private final long[] maxQueue;
+    private int maxHead;
+    private int maxSize;
+    private final long[] minQueue;
+    private int minHead;
+    private int minSize;
+
+    public MetricWindow(int capacity, DoublePredicate condition) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.condition = condition;
+        this.values = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.maxQueue = new long[capacity];
+        this.minQueue = new long[capacity];
+    }
+
+    public void add(long tsMillis, double value) {
+        if (size() == capacity) {
+            evictFirst();
+        }
+        long seq = nextSeq++;
+        int slot = slot(seq);
+        values[slot] = value;
+        timestamps[slot] = tsMillis;
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        sum += value;
+        validCount++;
+        if (condition.test(value)) {
+            matchCount++;
+        }
+        while (maxSize > 0 && values[slot(maxQueue[(maxHead + maxSize - 1) % capacity])] <= value) {
+            maxSize--;
+        }
+        maxQueue[(maxHead + maxSize++) % capacity] = seq;
+        while (minSize > 0 && values[slot(minQueue[(minHead + minSize - 1) % capacity])] >= value) {
+            minSize--;
+        }
+        minQueue[(minHead + minSize++) % capacity] = seq;
+    }
+
+    /**
+     * Drops readings whose event timestamp is before {@code cutoffMillis}.
+     */
+    @Override
+    public void evictOlderThan(long cutoffMillis) {
+        while (size() > 0 && timestamps[slot(firstSeq)] < cutoffMillis) {
+            evictFirst();
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) (nextSeq - firstSeq);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nextSeq == firstSeq;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    @Override
+    public int matchCount() {
+        return matchCount;
+    }
+
+    @Override
+    public boolean allMatch() {
+        return !isEmpty() && matchCount == size();
+    }
+
+    @Override
+    public int validCount() {
+        return validCount;
+    }
+
+    @Override
+    public double sum() {
+        return sum;
+    }
+
+    @Override
+    public double avg() {
+        return validCount == 0 ? Double.NaN : sum / validCount;
+    }
+
+    @Override
+    public double min() {
+        return minSize == 0 ? Double.NaN : values[slot(minQueue[minHead])];
+    }
+
+    @Override
+    public double max() {
+        return maxSize == 0 ? Double.NaN : values[slot(maxQueue[maxHead])];
+    }
+
+    public long oldestTimestamp() {
+        return isEmpty() ? Long.MIN_VALUE : timestamps[slot(firstSeq)];
+    }
+
+    public long newestTimestamp() {
+        return isEmpty() ? Long.MIN_VALUE : timestamps[slot(nextSeq - 1)];
+    }
+
+    /**
+     * Writes the readings oldest first; restoring replays them through {@link #add}, which rebuilds the aggregates.
+     */
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size());
+        for (long seq = firstSeq; seq < nextSeq; seq++) {
+            out.writeLong(timestamps[slot(seq)]);
+            out.writeDouble(values[slot(seq)]);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            add(in.readLong(), in.readDouble());
+        }
+    }
+
+    private void evictFirst() {
+        long seq = firstSeq++;
+        double value = values[slot(seq)];
+        if (Double.isNaN(value)) {
+            return;
+        }
+        validCount--;
+        // Пересчитываем сумму с нуля, когда окно опустело, чтобы не копить ошибку округления
+        sum = validCount == 0 ? 0 : sum - value;
+        if (condition.test(value)) {
+            matchCount--;
+        }
+        if (maxSize > 0 && maxQueue[maxHead] == seq) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+        if (minSize > 0 && minQueue[minHead] == seq) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % capacity);
+    }
+}
@@ -0,0 +1,94 @@
+package com.iot.mops.ruleengine.window;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+final class SessionWindows extends EventTimeWindows {
+
+    private final long gap;
+    // Открытые сессии по возрастанию начала; не пересекаются
+    private final List<WindowAggregate> sessions = new ArrayList<>(2);
+
+    SessionWindows(long gap, long lateness, DoublePredicate condition, Predicate<WindowAggregates> aggregate,
+                   int minCount) {
+        super(condition, aggregate, minCount);
+        this.gap = gap;
+    }
+
+    @Override
+    public boolean add(long tsMillis, double value, long watermarkMillis) {
+        WindowAggregate merged = null;
+        int insertAt = sessions.size();
+        for (int i = 0; i < sessions.size(); i++) {
+            WindowAggregate session = sessions.get(i);
+            if (session.start >= tsMillis + gap) {
+                insertAt = i;
+                break;
+            }
+            if (session.end <= tsMillis) {
+                continue;
+            }
+            // Показание попадает в сессию или в разрыв меньше gap перед ней — сливаем
+            if (merged == null) {
+                merged = session;
+            } else {
+                merged.merge(session);
+                sessions.remove(i--);
+            }
+        }
+        if (merged == null) {
+            if (tsMillis + gap <= watermarkMillis) {
+                return false;
+            }
+            merged = new WindowAggregate(tsMillis, tsMillis + gap);
+            sessions.add(insertAt, merged);
+        } else {
+            merged.start = Math.min(merged.start, tsMillis);
+            merged.end = Math.max(merged.end, tsMillis + gap);
+        }
+        accumulate(merged, value);
+        return true;
+    }
+
+    @Override
+    public boolean closeUpTo(long watermarkMillis) {
+        boolean fired = false;
+        while (!sessions.isEmpty() && sessions.get(0).end <= watermarkMillis) {
+            fired |= fires(sessions.remove(0));
+        }
+        return fired;
+    }
+
+    @Override
+    public void evictOlderThan(long cutoffMillis) {
+        while (!sessions.isEmpty() && sessions.get(0).end <= cutoffMillis) {
+            sessions.remove(0);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sessions.size());
+        for (WindowAggregate session : sessions) {
+            session.writeTo(out);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            sessions.add(WindowAggregate.readFrom(in));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.iot.mops.ruleengine.window;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+
+final class SlidingWindows extends EventTimeWindows {
+
+    private final long size;
+    private final long slide;
+    private final WindowAggregate[] ring;
+    private int open;
+    private long oldestStart;
+
+    SlidingWindows(long size, long slide, long lateness, DoublePredicate condition,
+                   Predicate<WindowAggregates> aggregate, int minCount) {
+        super(condition, aggregate, minCount);
+        this.size = size;
+        this.slide = slide;
+        // Открыты только окна с концом после watermark и началом не позже последнего ts — их не больше ёмкости
+        this.ring = new WindowAggregate[maxOpenWindows(size, slide, lateness)];
+    }
+
+    @Override
+    public boolean add(long tsMillis, double value, long watermarkMillis) {
+        boolean accepted = false;
+        for (long start = Math.floorDiv(tsMillis, slide) * slide; start + size > tsMillis; start -= slide) {
+            if (start + size <= watermarkMillis) {
+                break;
+            }
+            accumulate(windowAt(start), value);
+            accepted = true;
+        }
+        return accepted;
+    }
+
+    @Override
+    public boolean closeUpTo(long watermarkMillis) {
+        boolean fired = false;
+        while (open > 0 && oldestStart + size <= watermarkMillis) {
+            WindowAggregate window = ring[slot(oldestStart)];
+            fired |= fires(window);
+            release(window);
+        }
+        return fired;
+    }
+
+    @Override
+    public void evictOlderThan(long cutoffMillis) {
+        while (open > 0 && oldestStart + size <= cutoffMillis) {
+            release(ring[slot(oldestStart)]);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return open == 0;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(open);
+        for (WindowAggregate window : ring) {
+            if (window != null && window.end != Long.MIN_VALUE) {
+                window.writeTo(out);
+            }
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            WindowAggregate window = WindowAggregate.readFrom(in);
+            ring[slot(window.start)] = window;
+            oldestStart = open == 0 ? window.start : Math.min(oldestStart, window.start);
+            open++;
+        }
+    }
+
+    private WindowAggregate windowAt(long start) {
+        int slot = slot(start);
+        WindowAggregate window = ring[slot];
+        if (window == null) {
+            window = new WindowAggregate(start, start + size);
+            ring[slot] = window;
+        } else if (window.start != start || window.end == Long.MIN_VALUE) {
+            window.reset(start, start + size);
+        } else {
+            return window;
+        }
+        oldestStart = open == 0 ? start : Math.min(oldestStart, start);
+        open++;
+        return window;
+    }
+
+    private void release(WindowAggregate window) {
+        // Слот остаётся для повторного использования; end = MIN_VALUE помечает его свободным
+        window.end = Long.MIN_VALUE;
+        open--;
+        if (open > 0) {
+            long oldest = Long.MAX_VALUE;
+            for (WindowAggregate candidate : ring) {
+                if (candidate != null && candidate.end != Long.MIN_VALUE) {
+                    oldest = Math.min(oldest, candidate.start);
+                }
+            }
+            oldestStart = oldest;
+        }
+    }
+
+    private int slot(long start) {
+        return (int) Math.floorMod(Math.floorDiv(start, slide), (long) ring.length);
+    }
+}
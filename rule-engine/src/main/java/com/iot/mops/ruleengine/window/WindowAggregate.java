@@ -0,0 +1,110 @@
+package com.iot.mops.ruleengine.window;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.DoublePredicate;
+
+/**
+ * Incremental aggregates of one event-time window over {@code [start, end)}. Only numeric readings are added.
+ * Not thread-safe.
+ */
+final class WindowAggregate implements WindowAggregates {
+
+    long start;
+    long end;
+    private int count;
+    private int matchCount;
+    private double sum;
+    private double min;
+    private double max;
+
+    WindowAggregate(long start, long end) {
+        reset(start, end);
+    }
+
+    void reset(long start, long end) {
+        this.start = start;
+        this.end = end;
+        count = 0;
+        matchCount = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    void add(double value, DoublePredicate condition) {
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (condition.test(value)) {
+            matchCount++;
+        }
+    }
+
+    void merge(WindowAggregate other) {
+        start = Math.min(start, other.start);
+        end = Math.max(end, other.end);
+        count += other.count;
+        matchCount += other.matchCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(start);
+        out.writeLong(end);
+        out.writeInt(count);
+        out.writeInt(matchCount);
+        out.writeDouble(sum);
+        out.writeDouble(min);
+        out.writeDouble(max);
+    }
+
+    static WindowAggregate readFrom(DataInput in) throws IOException {
+        WindowAggregate window = new WindowAggregate(in.readLong(), in.readLong());
+        window.count = in.readInt();
+        window.matchCount = in.readInt();
+        window.sum = in.readDouble();
+        window.min = in.readDouble();
+        window.max = in.readDouble();
+        return window;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int matchCount() {
+        return matchCount;
+    }
+
+    @Override
+    public int validCount() {
+        return count;
+    }
+
+    @Override
+    public double sum() {
+        return sum;
+    }
+
+    @Override
+    public double avg() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    @Override
+    public double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+}
@@ -0,0 +1,31 @@
+package com.iot.mops.ruleengine.window;
+
+/**
+ * Aggregates of the readings in a window that window rules compare with their threshold.
+ */
+public interface WindowAggregates {
+
+    int size();
+
+    /**
+     * Readings satisfying the rule's condition.
+     */
+    int matchCount();
+
+    /**
+     * Readings with a numeric value.
+     */
+    int validCount();
+
+    double sum();
+
+    double avg();
+
+    double min();
+
+    double max();
+
+    default boolean allMatch() {
+        return size() > 0 && matchCount() == size();
+    }
+}
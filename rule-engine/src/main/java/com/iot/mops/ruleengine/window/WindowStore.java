@@ -0,0 +1,249 @@
+package com.iot.mops.ruleengine.window;
+
+import com.iot.mops.ruleengine.metrics.RuleMetrics;
+import com.iot.mops.ruleengine.partition.DevicePartitioner;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Per-device {@link DeviceWindow}s keyed by window name (one per window rule), plus the device's newest event
+ * timestamp, which event-time windows derive their watermark from. Devices are split into the same partitions as
+ * {@link DevicePartitioner}; each partition's map must only be touched from its worker.
+ * <p>
+ * With change tracking enabled, every device whose windows were touched since the last {@link #drainChanges} is
+ * remembered so a checkpoint only has to write those.
+ */
+@Component
+public class WindowStore {
+
+    private final DevicePartitioner partitioner;
+    private final RuleMetrics metrics;
+    private final Map<String, DeviceWindows>[] partitions;
+    // Устройства, изменённые с последнего drainChanges; null, пока отслеживание выключено
+    private Set<String>[] dirty;
+
+    @SuppressWarnings("unchecked")
+    public WindowStore(DevicePartitioner partitioner, RuleMetrics metrics) {
+        this.partitioner = partitioner;
+        this.metrics = metrics;
+        this.partitions = new Map[partitioner.partitions()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Starts remembering changed devices for {@link #drainChanges}. Must be called before the partition workers
+     * start evaluating.
+     */
+    @SuppressWarnings("unchecked")
+    public void enableChangeTracking() {
+        Set<String>[] sets = new Set[partitions.length];
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = new HashSet<>();
+        }
+        dirty = sets;
+    }
+
+    /**
+     * Returns the device's window named {@code key}, creating it with {@code factory} on first use.
+     */
+    @SuppressWarnings("unchecked")
+    public <W extends DeviceWindow> W window(String deviceId, String key, Supplier<W> factory) {
+        Map<String, DeviceWindow> windows = deviceWindows(deviceId).windows;
+        DeviceWindow window = windows.get(key);
+        if (window == null) {
+            window = factory.get();
+            windows.put(key, window);
+        }
+        return (W) window;
+    }
+
+    /**
+     * Returns the device's window named {@code key}, or {@code null} if it has not been created. A found window is
+     * taken to be changed, like one returned by {@link #window}.
+     */
+    @SuppressWarnings("unchecked")
+    public <W extends DeviceWindow> W find(String deviceId, String key) {
+        int partition = partitioner.partitionOf(deviceId);
+        DeviceWindows deviceWindows = partitions[partition].get(deviceId);
+        DeviceWindow window = deviceWindows == null ? null : deviceWindows.windows.get(key);
+        if (window != null) {
+            // Отсутствующее значение тоже меняет окно: обрывает серию COUNT или закрывает окна по времени
+            markDirty(partition, deviceId);
+        }
+        return (W) window;
+    }
+
+    /**
+     * Advances the device's newest event timestamp to {@code tsMillis} and returns it. Devices without windows are
+     * not tracked; for them {@code tsMillis} is returned as is.
+     */
+    public long observe(String deviceId, long tsMillis) {
+        int partition = partitioner.partitionOf(deviceId);
+        DeviceWindows deviceWindows = partitions[partition].get(deviceId);
+        if (deviceWindows == null) {
+            return tsMillis;
+        }
+        if (tsMillis > deviceWindows.maxEventTs) {
+            deviceWindows.maxEventTs = tsMillis;
+            markDirty(partition, deviceId);
+        }
+        return deviceWindows.maxEventTs;
+    }
+
+    /**
+     * The device's newest event timestamp, or {@link Long#MIN_VALUE} if it has no windows or none was observed yet.
+     */
+    public long maxEventTs(String deviceId) {
+        DeviceWindows deviceWindows = partitions[partitioner.partitionOf(deviceId)].get(deviceId);
+        return deviceWindows == null ? Long.MIN_VALUE : deviceWindows.maxEventTs;
+    }
+
+    public void recordLateReading() {
+        metrics.incrementLateReadings();
+    }
+
+    /**
+     * Evicts readings older than {@code cutoffMillis} from the device's windows and forgets the device once all
+     * of them are empty. Event-time windows ending by the cutoff are closed and judged first, as the watermark
+     * would have done; the keys of those that fired go to {@code fired}.
+     */
+    public void evictOlderThan(String deviceId, long cutoffMillis, Consumer<String> fired) {
+        int partition = partitioner.partitionOf(deviceId);
+        Map<String, DeviceWindows> devices = partitions[partition];
+        DeviceWindows deviceWindows = devices.get(deviceId);
+        if (deviceWindows == null) {
+            return;
+        }
+        markDirty(partition, deviceId);
+        if (evict(deviceWindows.windows, cutoffMillis, fired)) {
+            devices.remove(deviceId);
+        }
+    }
+
+    /**
+     * Reports every device of {@code partition} changed since the previous call to {@code sink} and forgets them.
+     * Must run on the partition's worker; the sink sees live windows and must serialize them before returning.
+     */
+    public void drainChanges(int partition, ChangeSink sink) {
+        Set<String> changed = dirty[partition];
+        Map<String, DeviceWindows> devices = partitions[partition];
+        for (String deviceId : changed) {
+            DeviceWindows deviceWindows = devices.get(deviceId);
+            if (deviceWindows == null) {
+                sink.removed(deviceId);
+            } else {
+                sink.changed(deviceId, deviceWindows.maxEventTs, deviceWindows.windows);
+            }
+        }
+        changed.clear();
+    }
+
+    /**
+     * Installs windows read back from a checkpoint; the store takes ownership of {@code windows}. Must run on the
+     * device's partition worker. A device left with no windows (all of them belonged to rules that no longer
+     * exist) is reported as removed by the next drain.
+     */
+    public void restore(String deviceId, long maxEventTs, Map<String, DeviceWindow> windows) {
+        int partition = partitioner.partitionOf(deviceId);
+        if (windows.isEmpty()) {
+            partitions[partition].remove(deviceId);
+            markDirty(partition, deviceId);
+            return;
+        }
+        // Карту забираем как есть, без копирования: при восстановлении устройств миллионы
+        DeviceWindows deviceWindows = new DeviceWindows(windows);
+        deviceWindows.maxEventTs = maxEventTs;
+        partitions[partition].put(deviceId, deviceWindows);
+    }
+
+    /**
+     * Drops the state of the partition's devices accepted by {@code matching} without reporting them to the next drain,
+     * for devices now handled by another instance. Must run on the partition's worker.
+     */
+    public void forget(int partition, Predicate<String> matching) {
+        partitions[partition].keySet().removeIf(matching);
+        if (dirty != null) {
+            dirty[partition].removeIf(matching);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, DeviceWindows> partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    public boolean contains(String deviceId) {
+        return partitions[partitioner.partitionOf(deviceId)].containsKey(deviceId);
+    }
+
+    private DeviceWindows deviceWindows(String deviceId) {
+        int partition = partitioner.partitionOf(deviceId);
+        Map<String, DeviceWindows> devices = partitions[partition];
+        DeviceWindows deviceWindows = devices.get(deviceId);
+        if (deviceWindows == null) {
+            deviceWindows = new DeviceWindows();
+            devices.put(deviceId, deviceWindows);
+        }
+        // Окно берут, чтобы изменить: правило добавит показание сразу после вызова
+        markDirty(partition, deviceId);
+        return deviceWindows;
+    }
+
+    private void markDirty(int partition, String deviceId) {
+        if (dirty != null) {
+            dirty[partition].add(deviceId);
+        }
+    }
+
+    private boolean evict(Map<String, DeviceWindow> windows, long cutoffMillis, Consumer<String> fired) {
+        Iterator<Map.Entry<String, DeviceWindow>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, DeviceWindow> entry = it.next();
+            DeviceWindow window = entry.getValue();
+            if (window instanceof EventTimeWindows eventTime && eventTime.closeUpTo(cutoffMillis)) {
+                fired.accept(entry.getKey());
+            }
+            window.evictOlderThan(cutoffMillis);
+            if (window.isEmpty()) {
+                it.remove();
+            }
+        }
+        return windows.isEmpty();
+    }
+
+    /**
+     * Receives the devices drained by {@link #drainChanges}.
+     */
+    public interface ChangeSink {
+
+        void changed(String deviceId, long maxEventTs, Map<String, DeviceWindow> windows);
+
+        void removed(String deviceId);
+    }
+
+    private static final class DeviceWindows {
+        private final Map<String, DeviceWindow> windows;
+        private long maxEventTs = Long.MIN_VALUE;
+
+        private DeviceWindows() {
+            this(new HashMap<>(4));
+        }
+
+        private DeviceWindows(Map<String, DeviceWindow> windows) {
+            this.windows = windows;
+        }
+    }
+}